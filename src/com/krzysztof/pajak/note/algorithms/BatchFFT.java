@@ -0,0 +1,198 @@
+/**
+ * BatchFFT.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.algorithms;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * BatchFFT converts many frames of the same size to frequency domain
+ * with one call, for example all frames of a spectrogram.
+ *
+ * Frames are stored one after another in a single array (frame m
+ * starts at m*frameLength) and magnitudes are written to a matrix
+ * provided by caller (bin k of frame m at m*bins + k). Frames are
+ * transformed in order of memory with one FFTPlan and one workspace,
+ * so batch doesn't create any objects per frame. Optionally, ranges
+ * of consecutive frames are spread over threads of a fork/join pool,
+ * every thread with its own workspace.
+ *
+ * Frames shorter than size of transform are padded with zeros,
+ * the same as in IterativeFFT.
+ *
+ * @author Krzysztof Pajk
+ */
+public class BatchFFT
+{
+	//Ranges with fewer frames are not divided further
+	final static int minTaskFrames = 8;
+	
+	private final int frameLength;
+	private final FFTPlan plan;
+	
+	//Workspace of sequential run
+	private final double[] re;
+	private final double[] im;
+	
+	/**
+	 * Creates batch transform for frames of given length.
+	 * @param frameLength	Number of samples in every frame.
+	 */
+	public BatchFFT(int frameLength)
+	{
+		if(frameLength < 1)
+		{
+			throw new IllegalArgumentException("Frame has to contain at least one sample");
+		}
+		this.frameLength = frameLength;
+		this.plan = new FFTPlan(IterativeFFT.getSize(frameLength));
+		this.re = new double[plan.getSize()];
+		this.im = new double[plan.getSize()];
+	}
+	
+	/**
+	 * Converts frames to frequency domain, in calling thread.
+	 * Method is not thread safe, it uses workspace of this object.
+	 *
+	 * Time complexity: O(M*N*lg(N))
+	 * Where M is number of frames and N is size of transform.
+	 *
+	 * @param frames		M frames of samples in time domain, one after another.
+	 * @param count			Number of frames M.
+	 * @param magnitudes	Output M x bins matrix, row after row.
+	 * @param bins			Number of bins written for every frame, at most N.
+	 */
+	public void run(double[] frames, int count, double[] magnitudes, int bins)
+	{
+		check(frames, count, magnitudes, bins);
+		transform(frames, 0, count, magnitudes, bins, re, im);
+	}
+	
+	/**
+	 * Converts frames to frequency domain, in parallel.
+	 * Every leaf task uses its own workspace.
+	 *
+	 * @param frames		M frames of samples in time domain, one after another.
+	 * @param count			Number of frames M.
+	 * @param magnitudes	Output M x bins matrix, row after row.
+	 * @param bins			Number of bins written for every frame, at most N.
+	 * @param pool			Fork/join pool running the transforms.
+	 */
+	public void run(double[] frames, int count, double[] magnitudes, int bins, ForkJoinPool pool)
+	{
+		check(frames, count, magnitudes, bins);
+		pool.invoke(new BatchTask(frames, 0, count, magnitudes, bins));
+	}
+	
+	/**
+	 * Validates sizes of arrays.
+	 */
+	private void check(double[] frames, int count, double[] magnitudes, int bins)
+	{
+		if(bins < 1 || bins > plan.getSize())
+		{
+			throw new IllegalArgumentException("Number of bins has to be in range [1,N]");
+		}
+		if(count < 0 || frames.length < (long) count * frameLength)
+		{
+			throw new IllegalArgumentException("Input array is too small");
+		}
+		if(magnitudes.length < (long) count * bins)
+		{
+			throw new IllegalArgumentException("Output array is too small");
+		}
+	}
+	
+	/**
+	 * Transforms range of frames [first, last) with given workspace.
+	 */
+	private void transform(double[] frames, int first, int last, double[] magnitudes, int bins, double[] re, double[] im)
+	{
+		final int N = plan.getSize();
+		for(int m=first; m<last; m++)
+		{
+			System.arraycopy(frames, m * frameLength, re, 0, frameLength);
+			for(int i=frameLength; i<N; i++)
+			{
+				re[i] = 0.0;
+			}
+			for(int i=0; i<N; i++)
+			{
+				im[i] = 0.0;
+			}
+			
+			plan.forward(re, im);
+			
+			final int offset = m * bins;
+			for(int k=0; k<bins; k++)
+			{
+				magnitudes[offset + k] = Math.sqrt(re[k]*re[k] + im[k]*im[k]);
+			}
+		}
+	}
+	
+	/**
+	 * @return	Number of samples in every frame.
+	 */
+	public int getFrameLength()
+	{
+		return frameLength;
+	}
+	
+	/**
+	 * @return	Size of transform N, the maximum number of bins.
+	 */
+	public int getSize()
+	{
+		return plan.getSize();
+	}
+	
+	/**
+	 * @return	Plan used by this batch transform.
+	 */
+	public FFTPlan getPlan()
+	{
+		return plan;
+	}
+	
+	/**
+	 * Fork/join task transforming a range of frames.
+	 * Range is divided in halves until it is short enough.
+	 */
+	private class BatchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		final double[] frames;
+		final int first;
+		final int last;
+		final double[] magnitudes;
+		final int bins;
+		
+		BatchTask(double[] frames, int first, int last, double[] magnitudes, int bins)
+		{
+			this.frames = frames;
+			this.first = first;
+			this.last = last;
+			this.magnitudes = magnitudes;
+			this.bins = bins;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(last - first > minTaskFrames)
+			{
+				int middle = (first + last) >>> 1;
+				invokeAll(new BatchTask(frames, first, middle, magnitudes, bins),
+						new BatchTask(frames, middle, last, magnitudes, bins));
+				return;
+			}
+			
+			final int N = plan.getSize();
+			transform(frames, first, last, magnitudes, bins, new double[N], new double[N]);
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/**
+ * Codelets.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.algorithms;
+
+/**
+ * Codelets are FFTs of small fixed sizes (2 to 64), used as base cases
+ * of larger transforms, which otherwise spend most of their time in loops
+ * over the first, shortest stages.
+ *
+ * Sizes 2 to 16 are written as straight-line code: values are held in local
+ * variables, every stage is unrolled and trivial twiddle factors (1, -i,
+ * e^(-i*pi/4)) are replaced by additions. Sizes 32 and 64 are two smaller
+ * codelets joined by one stage with precomputed twiddle factors; unrolling
+ * them completely would make methods too large to be compiled by JIT.
+ *
+ * Every codelet transforms values in place, at given offset, input in
+ * bit reversed order and output in natural order, so they can replace
+ * the first stages of radix-2 DIT FFT (after bit reversal permutation).
+ * Inverse transform (without scaling) is calculated by passing imaginary
+ * parts as re and real parts as im.
+ *
+ * @author Krzysztof Pajk
+ */
+class Codelets
+{
+	//Largest size of codelet
+	final static int maxSize = 64;
+	
+	//cos(pi/4), cos(pi/8), sin(pi/8)
+	private final static double c8 = Math.sqrt(0.5);
+	private final static double c16 = Math.cos(Math.PI / 8);
+	private final static double s16 = Math.sin(Math.PI / 8);
+	
+	//Twiddle factors e^(-2*pi*i*k/N) of the last stage of sizes 32 and 64
+	private final static double[] cos32 = cos(32);
+	private final static double[] sin32 = sin(32);
+	private final static double[] cos64 = cos(64);
+	private final static double[] sin64 = sin(64);
+	
+	private Codelets()
+	{
+	}
+	
+	/**
+	 * Calculates DFT of given size, in place.
+	 *
+	 * @param N		Size of transform, power of 2 from 2 to maxSize.
+	 * @param re	Real parts, in bit reversed order.
+	 * @param im	Imaginary parts, in bit reversed order.
+	 * @param o		Offset of the first value.
+	 */
+	static void dft(int N, double[] re, double[] im, int o)
+	{
+		switch(N)
+		{
+			case 2: dft2(re, im, o); break;
+			case 4: dft4(re, im, o); break;
+			case 8: dft8(re, im, o); break;
+			case 16: dft16(re, im, o); break;
+			case 32: dft32(re, im, o); break;
+			case 64: dft64(re, im, o); break;
+			default: throw new IllegalArgumentException("No codelet of size " + N);
+		}
+	}
+	
+	/**
+	 * DFT of 2 values at offset, in place, input in bit reversed order.
+	 */
+	static void dft2(double[] re, double[] im, int o)
+	{
+		double r0 = re[o], i0 = im[o];
+		double r1 = re[o+1], i1 = im[o+1];
+		double t;
+		
+		//Stage of size 2
+		t = r1; r1 = r0 - t; r0 += t;
+		t = i1; i1 = i0 - t; i0 += t;
+		
+		re[o] = r0; im[o] = i0;
+		re[o+1] = r1; im[o+1] = i1;
+	}
+	
+	/**
+	 * DFT of 4 values at offset, in place, input in bit reversed order.
+	 */
+	static void dft4(double[] re, double[] im, int o)
+	{
+		double r0 = re[o], i0 = im[o];
+		double r1 = re[o+1], i1 = im[o+1];
+		double r2 = re[o+2], i2 = im[o+2];
+		double r3 = re[o+3], i3 = im[o+3];
+		double t, tr, ti;
+		
+		//Stage of size 2
+		t = r1; r1 = r0 - t; r0 += t;
+		t = i1; i1 = i0 - t; i0 += t;
+		t = r3; r3 = r2 - t; r2 += t;
+		t = i3; i3 = i2 - t; i2 += t;
+		//Stage of size 4
+		t = r2; r2 = r0 - t; r0 += t;
+		t = i2; i2 = i0 - t; i0 += t;
+		tr = i3; ti = -r3;
+		r3 = r1 - tr; i3 = i1 - ti; r1 += tr; i1 += ti;
+		
+		re[o] = r0; im[o] = i0;
+		re[o+1] = r1; im[o+1] = i1;
+		re[o+2] = r2; im[o+2] = i2;
+		re[o+3] = r3; im[o+3] = i3;
+	}
+	
+	/**
+	 * DFT of 8 values at offset, in place, input in bit reversed order.
+	 */
+	static void dft8(double[] re, double[] im, int o)
+	{
+		double r0 = re[o], i0 = im[o];
+		double r1 = re[o+1], i1 = im[o+1];
+		double r2 = re[o+2], i2 = im[o+2];
+		double r3 = re[o+3], i3 = im[o+3];
+		double r4 = re[o+4], i4 = im[o+4];
+		double r5 = re[o+5], i5 = im[o+5];
+		double r6 = re[o+6], i6 = im[o+6];
+		double r7 = re[o+7], i7 = im[o+7];
+		double t, tr, ti;
+		
+		//Stage of size 2
+		t = r1; r1 = r0 - t; r0 += t;
+		t = i1; i1 = i0 - t; i0 += t;
+		t = r3; r3 = r2 - t; r2 += t;
+		t = i3; i3 = i2 - t; i2 += t;
+		t = r5; r5 = r4 - t; r4 += t;
+		t = i5; i5 = i4 - t; i4 += t;
+		t = r7; r7 = r6 - t; r6 += t;
+		t = i7; i7 = i6 - t; i6 += t;
+		//Stage of size 4
+		t = r2; r2 = r0 - t; r0 += t;
+		t = i2; i2 = i0 - t; i0 += t;
+		tr = i3; ti = -r3;
+		r3 = r1 - tr; i3 = i1 - ti; r1 += tr; i1 += ti;
+		t = r6; r6 = r4 - t; r4 += t;
+		t = i6; i6 = i4 - t; i4 += t;
+		tr = i7; ti = -r7;
+		r7 = r5 - tr; i7 = i5 - ti; r5 += tr; i5 += ti;
+		//Stage of size 8
+		t = r4; r4 = r0 - t; r0 += t;
+		t = i4; i4 = i0 - t; i0 += t;
+		tr = c8 * (r5 + i5); ti = c8 * (i5 - r5);
+		r5 = r1 - tr; i5 = i1 - ti; r1 += tr; i1 += ti;
+		tr = i6; ti = -r6;
+		r6 = r2 - tr; i6 = i2 - ti; r2 += tr; i2 += ti;
+		tr = c8 * (i7 - r7); ti = -c8 * (r7 + i7);
+		r7 = r3 - tr; i7 = i3 - ti; r3 += tr; i3 += ti;
+		
+		re[o] = r0; im[o] = i0;
+		re[o+1] = r1; im[o+1] = i1;
+		re[o+2] = r2; im[o+2] = i2;
+		re[o+3] = r3; im[o+3] = i3;
+		re[o+4] = r4; im[o+4] = i4;
+		re[o+5] = r5; im[o+5] = i5;
+		re[o+6] = r6; im[o+6] = i6;
+		re[o+7] = r7; im[o+7] = i7;
+	}
+	
+	/**
+	 * DFT of 16 values at offset, in place, input in bit reversed order.
+	 */
+	static void dft16(double[] re, double[] im, int o)
+	{
+		double r0 = re[o], i0 = im[o];
+		double r1 = re[o+1], i1 = im[o+1];
+		double r2 = re[o+2], i2 = im[o+2];
+		double r3 = re[o+3], i3 = im[o+3];
+		double r4 = re[o+4], i4 = im[o+4];
+		double r5 = re[o+5], i5 = im[o+5];
+		double r6 = re[o+6], i6 = im[o+6];
+		double r7 = re[o+7], i7 = im[o+7];
+		double r8 = re[o+8], i8 = im[o+8];
+		double r9 = re[o+9], i9 = im[o+9];
+		double r10 = re[o+10], i10 = im[o+10];
+		double r11 = re[o+11], i11 = im[o+11];
+		double r12 = re[o+12], i12 = im[o+12];
+		double r13 = re[o+13], i13 = im[o+13];
+		double r14 = re[o+14], i14 = im[o+14];
+		double r15 = re[o+15], i15 = im[o+15];
+		double t, tr, ti;
+		
+		//Stage of size 2
+		t = r1; r1 = r0 - t; r0 += t;
+		t = i1; i1 = i0 - t; i0 += t;
+		t = r3; r3 = r2 - t; r2 += t;
+		t = i3; i3 = i2 - t; i2 += t;
+		t = r5; r5 = r4 - t; r4 += t;
+		t = i5; i5 = i4 - t; i4 += t;
+		t = r7; r7 = r6 - t; r6 += t;
+		t = i7; i7 = i6 - t; i6 += t;
+		t = r9; r9 = r8 - t; r8 += t;
+		t = i9; i9 = i8 - t; i8 += t;
+		t = r11; r11 = r10 - t; r10 += t;
+		t = i11; i11 = i10 - t; i10 += t;
+		t = r13; r13 = r12 - t; r12 += t;
+		t = i13; i13 = i12 - t; i12 += t;
+		t = r15; r15 = r14 - t; r14 += t;
+		t = i15; i15 = i14 - t; i14 += t;
+		//Stage of size 4
+		t = r2; r2 = r0 - t; r0 += t;
+		t = i2; i2 = i0 - t; i0 += t;
+		tr = i3; ti = -r3;
+		r3 = r1 - tr; i3 = i1 - ti; r1 += tr; i1 += ti;
+		t = r6; r6 = r4 - t; r4 += t;
+		t = i6; i6 = i4 - t; i4 += t;
+		tr = i7; ti = -r7;
+		r7 = r5 - tr; i7 = i5 - ti; r5 += tr; i5 += ti;
+		t = r10; r10 = r8 - t; r8 += t;
+		t = i10; i10 = i8 - t; i8 += t;
+		tr = i11; ti = -r11;
+		r11 = r9 - tr; i11 = i9 - ti; r9 += tr; i9 += ti;
+		t = r14; r14 = r12 - t; r12 += t;
+		t = i14; i14 = i12 - t; i12 += t;
+		tr = i15; ti = -r15;
+		r15 = r13 - tr; i15 = i13 - ti; r13 += tr; i13 += ti;
+		//Stage of size 8
+		t = r4; r4 = r0 - t; r0 += t;
+		t = i4; i4 = i0 - t; i0 += t;
+		tr = c8 * (r5 + i5); ti = c8 * (i5 - r5);
+		r5 = r1 - tr; i5 = i1 - ti; r1 += tr; i1 += ti;
+		tr = i6; ti = -r6;
+		r6 = r2 - tr; i6 = i2 - ti; r2 += tr; i2 += ti;
+		tr = c8 * (i7 - r7); ti = -c8 * (r7 + i7);
+		r7 = r3 - tr; i7 = i3 - ti; r3 += tr; i3 += ti;
+		t = r12; r12 = r8 - t; r8 += t;
+		t = i12; i12 = i8 - t; i8 += t;
+		tr = c8 * (r13 + i13); ti = c8 * (i13 - r13);
+		r13 = r9 - tr; i13 = i9 - ti; r9 += tr; i9 += ti;
+		tr = i14; ti = -r14;
+		r14 = r10 - tr; i14 = i10 - ti; r10 += tr; i10 += ti;
+		tr = c8 * (i15 - r15); ti = -c8 * (r15 + i15);
+		r15 = r11 - tr; i15 = i11 - ti; r11 += tr; i11 += ti;
+		//Stage of size 16
+		t = r8; r8 = r0 - t; r0 += t;
+		t = i8; i8 = i0 - t; i0 += t;
+		tr = c16 * r9 + s16 * i9; ti = c16 * i9 - s16 * r9;
+		r9 = r1 - tr; i9 = i1 - ti; r1 += tr; i1 += ti;
+		tr = c8 * (r10 + i10); ti = c8 * (i10 - r10);
+		r10 = r2 - tr; i10 = i2 - ti; r2 += tr; i2 += ti;
+		tr = s16 * r11 + c16 * i11; ti = s16 * i11 - c16 * r11;
+		r11 = r3 - tr; i11 = i3 - ti; r3 += tr; i3 += ti;
+		tr = i12; ti = -r12;
+		r12 = r4 - tr; i12 = i4 - ti; r4 += tr; i4 += ti;
+		tr = -s16 * r13 + c16 * i13; ti = -s16 * i13 - c16 * r13;
+		r13 = r5 - tr; i13 = i5 - ti; r5 += tr; i5 += ti;
+		tr = c8 * (i14 - r14); ti = -c8 * (r14 + i14);
+		r14 = r6 - tr; i14 = i6 - ti; r6 += tr; i6 += ti;
+		tr = -c16 * r15 + s16 * i15; ti = -c16 * i15 - s16 * r15;
+		r15 = r7 - tr; i15 = i7 - ti; r7 += tr; i7 += ti;
+		
+		re[o] = r0; im[o] = i0;
+		re[o+1] = r1; im[o+1] = i1;
+		re[o+2] = r2; im[o+2] = i2;
+		re[o+3] = r3; im[o+3] = i3;
+		re[o+4] = r4; im[o+4] = i4;
+		re[o+5] = r5; im[o+5] = i5;
+		re[o+6] = r6; im[o+6] = i6;
+		re[o+7] = r7; im[o+7] = i7;
+		re[o+8] = r8; im[o+8] = i8;
+		re[o+9] = r9; im[o+9] = i9;
+		re[o+10] = r10; im[o+10] = i10;
+		re[o+11] = r11; im[o+11] = i11;
+		re[o+12] = r12; im[o+12] = i12;
+		re[o+13] = r13; im[o+13] = i13;
+		re[o+14] = r14; im[o+14] = i14;
+		re[o+15] = r15; im[o+15] = i15;
+	}
+	
+	
+	/**
+	 * DFT of 32 values at offset, in place, input in bit reversed order.
+	 */
+	static void dft32(double[] re, double[] im, int o)
+	{
+		dft16(re, im, o);
+		dft16(re, im, o + 16);
+		join(re, im, o, 16, cos32, sin32);
+	}
+	
+	/**
+	 * DFT of 64 values at offset, in place, input in bit reversed order.
+	 */
+	static void dft64(double[] re, double[] im, int o)
+	{
+		dft32(re, im, o);
+		dft32(re, im, o + 32);
+		join(re, im, o, 32, cos64, sin64);
+	}
+	
+	/**
+	 * The last stage of DIT FFT, joining DFTs of two halves.
+	 */
+	private static void join(double[] re, double[] im, int o, int half, double[] cos, double[] sin)
+	{
+		for(int k=0; k<half; k++)
+		{
+			final int a = o + k;
+			final int b = a + half;
+			final double tr = cos[k]*re[b] - sin[k]*im[b];
+			final double ti = cos[k]*im[b] + sin[k]*re[b];
+			re[b] = re[a] - tr;
+			im[b] = im[a] - ti;
+			re[a] += tr;
+			im[a] += ti;
+		}
+	}
+	
+	/**
+	 * Real parts of twiddle factors e^(-2*pi*i*k/N) for k < N/2.
+	 */
+	private static double[] cos(int N)
+	{
+		double[] cos = new double[N/2];
+		for(int k=0; k<N/2; k++)
+		{
+			cos[k] = Math.cos((-2.0) * Math.PI * k / N);
+		}
+		return cos;
+	}
+	
+	/**
+	 * Imaginary parts of twiddle factors e^(-2*pi*i*k/N) for k < N/2.
+	 */
+	private static double[] sin(int N)
+	{
+		double[] sin = new double[N/2];
+		for(int k=0; k<N/2; k++)
+		{
+			sin[k] = Math.sin((-2.0) * Math.PI * k / N);
+		}
+		return sin;
+	}
+}
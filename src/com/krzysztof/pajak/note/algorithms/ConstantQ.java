@@ -0,0 +1,206 @@
+/**
+ * ConstantQ.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.algorithms;
+import com.krzysztof.pajak.note.tools.Complex;
+import com.krzysztof.pajak.note.tools.NoteLookup;
+
+/**
+ * ConstantQ is an implementation of constant Q transform,
+ * with one bin for every semitone of NoteLookup.
+ *
+ * Unlike FFT, which gives linearly spaced bins, constant Q transform
+ * gives logarithmically spaced bins, just like musical notes.
+ * Every bin has the same ratio of frequency to bandwidth (Q),
+ * so low notes are analyzed with long windows and high notes with short ones.
+ *
+ * Transform is calculated in the efficient way described by
+ * J. C. Brown and M. S. Puckette (1992): spectral kernels of every
+ * bin are calculated once, in constructor, and only their significant
+ * values are kept. Then every transform needs one FFT and a short
+ * sum for every bin:
+ *
+ * cq[k] = 1/N * sum of X[j] * conj(K[k][j])
+ *
+ * @author Krzysztof Pajk
+ */
+public class ConstantQ
+{
+	//Spectral kernel values with smaller abs are omitted
+	final static double threshold = 0.0054;
+	
+	//Pitch of the first and the last bin, semitones counted from C0
+	private final int lowestPitch;
+	private final int highestPitch;
+	
+	//Size of FFT
+	private final int N;
+	
+	//Sparse spectral kernels, for every bin indices and values
+	private final int[][] kernelIndex;
+	private final double[][] kernelRe;
+	private final double[][] kernelIm;
+	
+	//Algorithm used to convert samples to frequency domain
+	private final IterativeFFT fft = new IterativeFFT();
+	
+	/**
+	 * Creates transform with bins from note C2 to B5,
+	 * octaves used by NoteEstimate.
+	 *
+	 * @param sampleRate	Sampling rate.
+	 */
+	public ConstantQ(int sampleRate)
+	{
+		this(sampleRate, 2 * 12, 6 * 12 - 1);
+	}
+	
+	/**
+	 * Creates transform with bins for every semitone in given range.
+	 * Spectral kernels are calculated here, so it is advised
+	 * to create a transform once and use it for many frames.
+	 *
+	 * @param sampleRate	Sampling rate.
+	 * @param lowestPitch	Pitch of the first bin, semitones counted from C0.
+	 * @param highestPitch	Pitch of the last bin, semitones counted from C0.
+	 */
+	public ConstantQ(int sampleRate, int lowestPitch, int highestPitch)
+	{
+		if(lowestPitch < 0 || highestPitch < lowestPitch)
+		{
+			throw new IllegalArgumentException("Invalid range of pitches");
+		}
+		if(NoteLookup.getFrequency(highestPitch) >= sampleRate / 2.0)
+		{
+			throw new IllegalArgumentException("The highest pitch is above Nyquist frequency");
+		}
+		
+		this.lowestPitch = lowestPitch;
+		this.highestPitch = highestPitch;
+		
+		//Quality factor for one bin per semitone
+		final double Q = 1.0 / (NoteLookup.getDiff() - 1.0);
+		
+		//FFT has to contain the longest window, of the lowest bin
+		final int longest = (int) Math.ceil(Q * sampleRate / NoteLookup.getFrequency(lowestPitch));
+		this.N = IterativeFFT.getSize(longest);
+		
+		final int bins = highestPitch - lowestPitch + 1;
+		kernelIndex = new int[bins][];
+		kernelRe = new double[bins][];
+		kernelIm = new double[bins][];
+		
+		for(int k=0; k<bins; k++)
+		{
+			double frequency = NoteLookup.getFrequency(lowestPitch + k);
+			int length = (int) Math.ceil(Q * sampleRate / frequency);
+			
+			//Temporal kernel: Hamming window modulated by bin's frequency,
+			//placed in the center of FFT frame
+			double[] re = new double[N];
+			double[] im = new double[N];
+			int offset = (N - length) / 2;
+			for(int n=0; n<length; n++)
+			{
+				double window = 0.54 - 0.46 * Math.cos(2.0 * Math.PI * n / Math.max(1, length - 1));
+				double arg = 2.0 * Math.PI * Q * n / length;
+				re[offset + n] = window / length * Math.cos(arg);
+				im[offset + n] = window / length * Math.sin(arg);
+			}
+			
+			//Spectral kernel, FFT(re + i*im) = FFT(re) + i*FFT(im)
+			Complex[] a = fft.run(re);
+			Complex[] b = fft.run(im);
+			
+			int count = 0;
+			double[] kRe = new double[N];
+			double[] kIm = new double[N];
+			for(int j=0; j<N; j++)
+			{
+				kRe[j] = a[j].re() - b[j].im();
+				kIm[j] = a[j].im() + b[j].re();
+				if(Math.hypot(kRe[j], kIm[j]) > threshold)
+				{
+					count++;
+				}
+			}
+			
+			//Keeping only significant values
+			kernelIndex[k] = new int[count];
+			kernelRe[k] = new double[count];
+			kernelIm[k] = new double[count];
+			int c = 0;
+			for(int j=0; j<N; j++)
+			{
+				if(Math.hypot(kRe[j], kIm[j]) > threshold)
+				{
+					kernelIndex[k][c] = j;
+					kernelRe[k][c] = kRe[j];
+					kernelIm[k][c] = kIm[j];
+					c++;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Converts samples to constant Q spectrum.
+	 * First getFrameSize() samples are used, shorter input
+	 * is padded with zeros.
+	 *
+	 * Time complexity: O(N*lg(N) + m)
+	 * Where N is size of FFT and m is number of kernel values kept.
+	 *
+	 * @param samples	Input sound samples in time domain.
+	 * @return			Magnitudes of bins, index 0 is the lowest pitch.
+	 */
+	public double[] run(double[] samples)
+	{
+		double[] frame = new double[N];
+		System.arraycopy(samples, 0, frame, 0, Math.min(N, samples.length));
+		Complex[] spectrum = fft.run(frame);
+		
+		double[] output = new double[kernelIndex.length];
+		for(int k=0; k<output.length; k++)
+		{
+			double re = 0.0;
+			double im = 0.0;
+			final int[] index = kernelIndex[k];
+			for(int c=0; c<index.length; c++)
+			{
+				//X * conj(K)
+				Complex x = spectrum[index[c]];
+				re += x.re() * kernelRe[k][c] + x.im() * kernelIm[k][c];
+				im += x.im() * kernelRe[k][c] - x.re() * kernelIm[k][c];
+			}
+			output[k] = Math.hypot(re, im) / N;
+		}
+		return output;
+	}
+	
+	/**
+	 * @return	Number of samples used by single transform (size of FFT).
+	 */
+	public int getFrameSize()
+	{
+		return N;
+	}
+	
+	/**
+	 * @return	Pitch of the first bin, semitones counted from C0.
+	 */
+	public int getLowestPitch()
+	{
+		return lowestPitch;
+	}
+	
+	/**
+	 * @return	Pitch of the last bin, semitones counted from C0.
+	 */
+	public int getHighestPitch()
+	{
+		return highestPitch;
+	}
+}
@@ -7,17 +7,29 @@ package com.krzysztof.pajak.note.algorithms;
 import com.krzysztof.pajak.note.tools.Complex;
 
 /**
- * DirectDFT is an INEFFICIENT way of calculating DFTs. 
- * It's run method converts samples to frequency domain directly from the equation.
- * It has been added only for test purposes and to show how much time it takes
- * when calculating DFTs directly from the equation.
+ * DirectDFT calculates DFTs directly from the equation.
+ * It's run method converts samples to frequency domain.
  * 
- * >> DirectDFT should not be used in practical applications.
+ * Its time complexity is O(n^2), so for longer inputs FFT should be used.
+ * But it works for input of any length, without padding to a power of 2,
+ * and for tiny frames it is fast: twiddle factors are calculated only
+ * when size of input changes, as a full matrix for sizes up to
+ * maxMatrixSize, or as one row for longer inputs (factor of sample n
+ * in bin k is e^(-2*pi*i*(k*n mod N)/N)).
+ * One instance should be used by one thread, because it keeps these tables.
  * 
  * @author Krzysztof Pajk
  */
 public class DirectDFT extends AbstractAlgorithm
 {
+	//Inputs up to this size use full matrix of twiddle factors
+	final static int maxMatrixSize = 64;
+	
+	//Size of the last input and its twiddle factors
+	private int N = 0;
+	private double[] cos;
+	private double[] sin;
+	
 	@Override
 	/**
 	 * Method converting samples from time domain
@@ -30,24 +42,100 @@ public class DirectDFT extends AbstractAlgorithm
 	 * @return			Input converted to frequency domain.
 	 */
 	public Complex[] run(double[] input)
+	{
+		double[] re = new double[input.length];
+		double[] im = new double[input.length];
+		run(input, re, im);
+		
+		Complex[] output = new Complex[input.length];
+		for(int k=0; k<output.length; k++)
+		{
+			output[k] = new Complex(re[k], im[k]);
+		}
+		return output;
+	}
+	
+	/**
+	 * Method converting samples from time domain to frequency
+	 * domain, without creating any objects (after the first call
+	 * with given size).
+	 * 
+	 * Time complexity: O(n^2)
+	 * Where n is size of input samples.
+	 * 
+	 * @param input		Input sound samples in time domain.
+	 * @param re		Output real parts, at least input.length values.
+	 * @param im		Output imaginary parts, at least input.length values.
+	 */
+	public void run(double[] input, double[] re, double[] im)
 	{
 		final int N = input.length;
-		final double PIconst = (2.0)*Math.PI/(double)N;
+		prepare(N);
 		
-		Complex[] output = new Complex[N];
+		if(N <= maxMatrixSize)
+		{
+			for(int k=0, row=0; k<N; k++, row+=N)
+			{
+				double sumRe = 0.0, sumIm = 0.0;
+				for(int n=0; n<N; n++)
+				{
+					sumRe += input[n] * cos[row + n];
+					sumIm += input[n] * sin[row + n];
+				}
+				re[k] = sumRe;
+				im[k] = sumIm;
+			}
+			return;
+		}
 		
-		double arg = 0.0;
 		for(int k=0; k<N; k++)
 		{
-			for(int n=0; n<N; n++)
+			double sumRe = 0.0, sumIm = 0.0;
+			for(int n=0, m=0; n<N; n++)
 			{
-				Complex x = new Complex(input[n], 0.0);
-				Complex w = Complex.cexp(new Complex(0.0, (-1.0)*arg*k));
-				output[k] = Complex.mult(x, w);
+				sumRe += input[n] * cos[m];
+				sumIm += input[n] * sin[m];
+				
+				//m = k*n mod N, without multiplication and division
+				m += k;
+				if(m >= N)
+				{
+					m -= N;
+				}
 			}
-			arg = arg + PIconst;
+			re[k] = sumRe;
+			im[k] = sumIm;
+		}
+	}
+	
+	/**
+	 * Calculates twiddle factors, unless they are already calculated for this size.
+	 */
+	private void prepare(int size)
+	{
+		if(size == N && cos != null)
+		{
+			return;
 		}
 		
-		return output;
+		double[] row = new double[2*size];
+		for(int m=0; m<size; m++)
+		{
+			double arg = (-2.0) * Math.PI * m / size;
+			row[2*m] = Math.cos(arg);
+			row[2*m + 1] = Math.sin(arg);
+		}
+		
+		final int length = (size <= maxMatrixSize) ? size*size : size;
+		cos = new double[length];
+		sin = new double[length];
+		for(int i=0; i<length; i++)
+		{
+			//Element (k, n) of matrix is factor k*n mod N of row
+			int m = (size <= maxMatrixSize) ? (i / size) * (i % size) % size : i;
+			cos[i] = row[2*m];
+			sin[i] = row[2*m + 1];
+		}
+		N = size;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+/**
+ * FFTPlan.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.algorithms;
+
+/**
+ * FFTPlan calculates radix-2 FFT of one fixed size on primitive arrays.
+ *
+ * Everything that depends only on size (twiddle factors and bit reversal
+ * permutation) is calculated once, in constructor, so a plan should be
+ * created once and used for many transforms. Real and imaginary parts
+ * are kept in separate arrays and transformed in place, no objects
+ * are created during transform.
+ *
+ * The first stages (DFTs of blocks of up to Codelets.maxSize values)
+ * are calculated by codelets, only longer stages by generic loops.
+ *
+ * Plan is immutable, so it can be shared by many threads,
+ * as long as every thread transforms its own arrays.
+ *
+ * @author Krzysztof Pajk
+ */
+public class FFTPlan
+{
+	//Size of transform
+	private final int N;
+	
+	//Twiddle factors e^(-2*pi*i*k/N) for k < N/2
+	private final double[] cos;
+	private final double[] sin;
+	
+	//Bit reversal permutation
+	private final int[] reversed;
+	
+	/**
+	 * Creates plan for transforms of given size.
+	 * @param N		Size of transform, power of 2.
+	 */
+	public FFTPlan(int N)
+	{
+		if(N < 2 || Integer.bitCount(N) != 1)
+		{
+			throw new IllegalArgumentException("Size of transform has to be a power of 2");
+		}
+		this.N = N;
+		
+		cos = new double[N/2];
+		sin = new double[N/2];
+		for(int k=0; k<N/2; k++)
+		{
+			double arg = (-2.0) * Math.PI * k / N;
+			cos[k] = Math.cos(arg);
+			sin[k] = Math.sin(arg);
+		}
+		
+		reversed = new int[N];
+		int shift = Integer.numberOfLeadingZeros(N) + 1;
+		for(int i=0; i<N; i++)
+		{
+			reversed[i] = Integer.reverse(i) >>> shift;
+		}
+	}
+	
+	/**
+	 * Converts data from time domain to frequency domain, in place.
+	 * First N values of both arrays are used.
+	 *
+	 * Time complexity: O(N*lg(N))
+	 *
+	 * @param re	Real parts.
+	 * @param im	Imaginary parts.
+	 */
+	public void forward(double[] re, double[] im)
+	{
+		transform(re, im, 1.0);
+	}
+	
+	/**
+	 * Converts data from frequency domain to time domain, in place,
+	 * scaled so that inverse(forward(x)) is x.
+	 * First N values of both arrays are used.
+	 *
+	 * @param re	Real parts.
+	 * @param im	Imaginary parts.
+	 */
+	public void inverse(double[] re, double[] im)
+	{
+		transform(re, im, -1.0);
+		final double scale = 1.0 / N;
+		for(int i=0; i<N; i++)
+		{
+			re[i] *= scale;
+			im[i] *= scale;
+		}
+	}
+	
+	/**
+	 * Iterative radix-2 DIT FFT.
+	 * @param sign	1.0 for forward transform, -1.0 for inverse.
+	 */
+	private void transform(double[] re, double[] im, double sign)
+	{
+		//Bit reversal array permutation
+		for(int i=0; i<N; i++)
+		{
+			int j = reversed[i];
+			if(j > i)
+			{
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		
+		//DFTs of the smallest blocks by codelets, inverse one with swapped parts
+		final int base = Math.min(N, Codelets.maxSize);
+		for(int j=0; j<N; j+=base)
+		{
+			if(sign > 0)
+			{
+				Codelets.dft(base, re, im, j);
+			}
+			else
+			{
+				Codelets.dft(base, im, re, j);
+			}
+		}
+		
+		//Calculating remaining DFTs
+		for(int l=2*base; l<=N; l=l+l)
+		{
+			final int half = l/2;
+			final int step = N/l;
+			for(int j=0; j<N; j+=l)
+			{
+				for(int k=0; k<half; k++)
+				{
+					double wRe = cos[k*step];
+					double wIm = sign * sin[k*step];
+					int a = j + k;
+					int b = a + half;
+					double oRe = wRe*re[b] - wIm*im[b];
+					double oIm = wRe*im[b] + wIm*re[b];
+					re[b] = re[a] - oRe;
+					im[b] = im[a] - oIm;
+					re[a] += oRe;
+					im[a] += oIm;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return	Size of transform.
+	 */
+	public int getSize()
+	{
+		return N;
+	}
+}
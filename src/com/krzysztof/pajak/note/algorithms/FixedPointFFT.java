@@ -0,0 +1,159 @@
+/**
+ * FixedPointFFT.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.algorithms;
+
+/**
+ * FixedPointFFT calculates radix-2 FFT of one fixed size
+ * only with integer arithmetic, on int arrays.
+ *
+ * Every stage of FFT can double values, so fixed point data would
+ * overflow after a few stages. Block floating point is used instead:
+ * all values share one exponent. Before every stage, if the largest
+ * value could overflow in butterflies, all values of the stage are
+ * shifted right by one bit and the exponent is incremented, so
+ * small spectra keep all their precision and large ones don't overflow.
+ * Result multiplied by 2^exponent is the DFT of input.
+ *
+ * Twiddle factors are kept with 30 fractional bits and products
+ * are calculated in long. Input values should be smaller than 2^29,
+ * output values are smaller than 2^31, so squared magnitudes
+ * of output fit in long.
+ *
+ * Plan is immutable, so it can be shared by many threads,
+ * as long as every thread transforms its own arrays.
+ *
+ * @author Krzysztof Pajk
+ */
+public class FixedPointFFT
+{
+	//Fractional bits of twiddle factors
+	final static int twiddleBits = 30;
+	
+	/**
+	 * Values not smaller than this are shifted before next stage.
+	 */
+	public final static int limit = 1 << 29;
+	
+	//Size of transform
+	private final int N;
+	
+	//Twiddle factors e^(-2*pi*i*k/N) for k < N/2, in Q30
+	private final int[] cos;
+	private final int[] sin;
+	
+	//Bit reversal permutation
+	private final int[] reversed;
+	
+	/**
+	 * Creates plan for transforms of given size.
+	 * @param N		Size of transform, power of 2.
+	 */
+	public FixedPointFFT(int N)
+	{
+		if(N < 2 || Integer.bitCount(N) != 1)
+		{
+			throw new IllegalArgumentException("Size of transform has to be a power of 2");
+		}
+		this.N = N;
+		
+		cos = new int[N/2];
+		sin = new int[N/2];
+		for(int k=0; k<N/2; k++)
+		{
+			double arg = (-2.0) * Math.PI * k / N;
+			cos[k] = (int) Math.round(Math.cos(arg) * (1 << twiddleBits));
+			sin[k] = (int) Math.round(Math.sin(arg) * (1 << twiddleBits));
+		}
+		
+		reversed = new int[N];
+		int shift = Integer.numberOfLeadingZeros(N) + 1;
+		for(int i=0; i<N; i++)
+		{
+			reversed[i] = Integer.reverse(i) >>> shift;
+		}
+	}
+	
+	/**
+	 * Converts data from time domain to frequency domain, in place.
+	 * First N values of both arrays are used.
+	 *
+	 * Time complexity: O(N*lg(N))
+	 *
+	 * @param re	Real parts.
+	 * @param im	Imaginary parts.
+	 * @return		Block exponent, DFT is output multiplied by 2^exponent.
+	 */
+	public int forward(int[] re, int[] im)
+	{
+		//Bit reversal array permutation and the largest value
+		int max = 0;
+		for(int i=0; i<N; i++)
+		{
+			int j = reversed[i];
+			if(j > i)
+			{
+				int t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+			max = Math.max(max, Math.max(Math.abs(re[i]), Math.abs(im[i])));
+		}
+		
+		//Input larger than limit is scaled down before the first stage
+		int exponent = 0;
+		while(max >= limit)
+		{
+			max >>= 1;
+			exponent++;
+		}
+		int shift = exponent;
+		
+		//Calculating DFTs, every stage remembers the largest value
+		//and scales its input if it could overflow
+		for(int l=2; l<=N; l=l+l)
+		{
+			final int half = l/2;
+			final int step = N/l;
+			final long round = 1L << (twiddleBits - 1);
+			max = 0;
+			for(int j=0; j<N; j+=l)
+			{
+				for(int k=0; k<half; k++)
+				{
+					long wRe = cos[k*step];
+					long wIm = sin[k*step];
+					int a = j + k;
+					int b = a + half;
+					int aRe = re[a] >> shift;
+					int aIm = im[a] >> shift;
+					int bRe = re[b] >> shift;
+					int bIm = im[b] >> shift;
+					int oRe = (int) ((wRe*bRe - wIm*bIm + round) >> twiddleBits);
+					int oIm = (int) ((wRe*bIm + wIm*bRe + round) >> twiddleBits);
+					re[b] = aRe - oRe;
+					im[b] = aIm - oIm;
+					re[a] = aRe + oRe;
+					im[a] = aIm + oIm;
+					max = Math.max(max, Math.max(Math.max(Math.abs(re[a]), Math.abs(im[a])), Math.max(Math.abs(re[b]), Math.abs(im[b]))));
+				}
+			}
+			
+			shift = (max >= limit) ? 1 : 0;
+			if(l < N)
+			{
+				exponent += shift;
+			}
+		}
+		return exponent;
+	}
+	
+	/**
+	 * @return	Size of transform.
+	 */
+	public int getSize()
+	{
+		return N;
+	}
+}
@@ -4,7 +4,10 @@
  */
 
 package com.krzysztof.pajak.note.algorithms;
+import java.nio.DoubleBuffer;
+
 import com.krzysztof.pajak.note.tools.Complex;
+import com.krzysztof.pajak.note.tools.OffHeapBuffer;
 
 /**
  * IterativeFFT is an implementation of iterative "2-radix DIT FFT" algorithm.
@@ -14,6 +17,10 @@ import com.krzysztof.pajak.note.tools.Complex;
  * named after J. W. Cooley and John Tukey who published paper
  * about this algorithm in 1965.
  * 
+ * After bit reversal, blocks of up to Codelets.maxSize values
+ * are transformed by codelets, and butterflies are calculated
+ * in loops only for the longer stages.
+ * 
  * @author Krzysztof Pajk
  */
 public class IterativeFFT extends AbstractAlgorithm
@@ -30,72 +37,153 @@ public class IterativeFFT extends AbstractAlgorithm
 	 * @return			Input converted to frequency domain.
 	 */
 	public Complex[] run(double[] samples)
-    {
-		//Getting smallest number N=2^i greater or equal input.length
-		int N = 2;
-		while(N < samples.length) { N *= 2; }
-		
-		//Creating new buffer for further calculations
-		//Buffer's size is x = 2^i
-		Complex[] buffer = new Complex[N];
+	{
+		final int N = getSize(samples.length);
 		
-		//Copying input samples to buffer
+		//Copying input samples to bit reversed positions
 		//And padding remaining space with zeros
-		for(int i=0; i<buffer.length; i++)
+		double[] re = new double[N];
+		double[] im = new double[N];
+		int shift = Integer.numberOfLeadingZeros(N) + 1;
+		for(int i=0; i<samples.length; i++)
 		{
-			if(i < samples.length)
-			buffer[i] = new Complex(samples[i], 0.0);
-			else
-			buffer[i] = new Complex(0.0, 0.0);
+			re[Integer.reverse(i) >>> shift] = samples[i];
 		}
-
-        //Bit reversal array permutation
-		buffer = bitReverseCopy(buffer);
-
-		//Calculating DFTs
+		
+		//DFTs of the smallest blocks by codelets
+		final int base = Math.min(N, Codelets.maxSize);
+		for(int j=0; j<N; j+=base)
+		{
+			Codelets.dft(base, re, im, j);
+		}
+		
+		//Calculating remaining DFTs
 		final double PI2 = (-2.0)*Math.PI;
-        for(int l=2; l<=N; l=l+l) 
-        {
-            for(int k=0; k<l/2; k++)
-            {
-                double arg = (k*PI2) / l;
-                Complex w = new Complex(Math.cos(arg), Math.sin(arg));
-                
-                for(int j=0; j<N/l; j++)
-                {
-                	Complex wo = Complex.mult(w, buffer[j*l+k + l/2]);
-                	buffer[j*l + k + l/2] = Complex.sub(buffer[j*l + k], wo);
-                	buffer[j*l + k] = Complex.add(buffer[j*l + k], wo);
-                }
-            }
-        }
-        
-        return buffer;
-    }
+		for(int l=2*base; l<=N; l=l+l)
+		{
+			for(int k=0; k<l/2; k++)
+			{
+				double arg = (k*PI2) / l;
+				double wRe = Math.cos(arg);
+				double wIm = Math.sin(arg);
+				
+				for(int a=k; a<N; a+=l)
+				{
+					int b = a + l/2;
+					double oRe = wRe*re[b] - wIm*im[b];
+					double oIm = wRe*im[b] + wIm*re[b];
+					re[b] = re[a] - oRe;
+					im[b] = im[a] - oIm;
+					re[a] += oRe;
+					im[a] += oIm;
+				}
+			}
+		}
+		
+		Complex[] buffer = new Complex[N];
+		for(int i=0; i<N; i++)
+		{
+			buffer[i] = new Complex(re[i], im[i]);
+		}
+		return buffer;
+	}
 	
 	/**
-	 * Method performing bit reversal.
-	 * Bit reversal is the array permutation where the data at an index n,
-	 * written in binary with digits b4 b3 b2 b1 b0,
-	 * is transferred to the index with reversed digits b0 b1 b2 b3 b4
+	 * Method converting samples from time domain to frequency
+	 * domain, operating directly on buffers outside of the heap.
+	 * 
+	 * Output buffer contains N complex numbers stored as
+	 * interleaved real and imaginary parts, where N is the smallest
+	 * power of 2 greater or equal to number of samples, see getSize().
 	 * 
-	 * @param array		Input array
-	 * @return			'Bit reversal' permutation of input array
+	 * Time complexity: O(n*lg(n))
+	 * Where n is size of input samples.
+	 * 
+	 * @param samples	Input sound samples in time domain.
+	 * @param spectrum	Output buffer of at least 2*N values.
+	 * @return			N, number of complex numbers in output buffer.
 	 */
-	private Complex[] bitReverseCopy(Complex[] array)
+	public int run(OffHeapBuffer samples, OffHeapBuffer spectrum)
 	{
-		int N = array.length;
+		final int length = samples.length();
+		final int N = getSize(length);
+		if(spectrum.length() < 2*N)
+		{
+			throw new IllegalArgumentException("Output buffer is too small");
+		}
+		
+		DoubleBuffer in = samples.buffer();
+		DoubleBuffer out = spectrum.buffer();
+		
+		//Copying input samples to bit reversed positions
+		//And padding remaining space with zeros
 		int shift = Integer.numberOfLeadingZeros(N) + 1;
-        for(int k=0; k<N; k++)
-        {
-            int j = Integer.reverse(k) >>> shift;
-            if(j > k)
-            {
-                Complex t = array[j];
-                array[j] = array[k];
-                array[k] = t;
-            }
-        }
-        return array;
+		for(int i=0; i<N; i++)
+		{
+			int j = Integer.reverse(i) >>> shift;
+			out.put(2*j, (i < length) ? in.get(i) : 0.0);
+			out.put(2*j + 1, 0.0);
+		}
+		
+		//DFTs of the smallest blocks by codelets, every block copied to small arrays
+		final int base = Math.min(N, Codelets.maxSize);
+		double[] re = new double[base];
+		double[] im = new double[base];
+		for(int j=0; j<N; j+=base)
+		{
+			for(int i=0; i<base; i++)
+			{
+				re[i] = out.get(2*(j+i));
+				im[i] = out.get(2*(j+i) + 1);
+			}
+			Codelets.dft(base, re, im, 0);
+			for(int i=0; i<base; i++)
+			{
+				out.put(2*(j+i), re[i]);
+				out.put(2*(j+i) + 1, im[i]);
+			}
+		}
+		
+		//Calculating remaining DFTs
+		final double PI2 = (-2.0)*Math.PI;
+		for(int l=2*base; l<=N; l=l+l)
+		{
+			for(int k=0; k<l/2; k++)
+			{
+				double arg = (k*PI2) / l;
+				double wRe = Math.cos(arg);
+				double wIm = Math.sin(arg);
+				
+				for(int j=k; j<N; j+=l)
+				{
+					int a = 2*j;
+					int b = 2*(j + l/2);
+					double bRe = out.get(b);
+					double bIm = out.get(b+1);
+					double oRe = wRe*bRe - wIm*bIm;
+					double oIm = wRe*bIm + wIm*bRe;
+					double aRe = out.get(a);
+					double aIm = out.get(a+1);
+					out.put(b, aRe - oRe);
+					out.put(b+1, aIm - oIm);
+					out.put(a, aRe + oRe);
+					out.put(a+1, aIm + oIm);
+				}
+			}
+		}
+		
+		return N;
+	}
+	
+	/**
+	 * Returns size of transform calculated for given number of samples.
+	 * @param length	Number of input samples.
+	 * @return			Smallest number N=2^i greater or equal length (at least 2).
+	 */
+	public static int getSize(int length)
+	{
+		int N = 2;
+		while(N < length) { N *= 2; }
+		return N;
 	}
 }
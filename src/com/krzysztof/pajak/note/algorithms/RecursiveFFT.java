@@ -21,6 +21,10 @@ public class RecursiveFFT extends AbstractAlgorithm
 	//Buffer array used by recursive calls
 	private Complex[] buffer;
 	
+	//Workspace of codelets, used for the smallest parts of array
+	private final double[] re = new double[Codelets.maxSize];
+	private final double[] im = new double[Codelets.maxSize];
+	
 	@Override
 	/**
 	 * Method converting samples from time domain
@@ -70,7 +74,11 @@ public class RecursiveFFT extends AbstractAlgorithm
 	private void FFT(int start, int end)
 	{
 		int length = end-start;
-        if(length >= 2)
+		if(length >= 2 && length <= Codelets.maxSize)
+		{
+			codelet(start, length);
+		}
+		else if(length >= 2)
         {
         	//Moving elements with even index to the first half
         	//and elements with odd index to the second half.
@@ -98,6 +106,30 @@ public class RecursiveFFT extends AbstractAlgorithm
         }
 	}
 	
+	/**
+	 * Calculates DFT of a small part of array by codelet.
+	 * Codelet takes input in bit reversed order, so elements
+	 * don't have to be grouped by recursive calls.
+	 * 
+	 * @param start		Beginning of array part that will be processed
+	 * @param length	Length of array part, power of 2 up to Codelets.maxSize
+	 */
+	private void codelet(int start, int length)
+	{
+		final int shift = Integer.numberOfLeadingZeros(length) + 1;
+		for(int i=0; i<length; i++)
+		{
+			int j = Integer.reverse(i) >>> shift;
+			re[j] = buffer[start + i].re();
+			im[j] = buffer[start + i].im();
+		}
+		Codelets.dft(length, re, im, 0);
+		for(int i=0; i<length; i++)
+		{
+			buffer[start + i] = new Complex(re[i], im[i]);
+		}
+	}
+	
 	/**
 	 * Moves elements with even index to the first half
 	 * and elements with odd index to the second half.
@@ -0,0 +1,157 @@
+/**
+ * SlidingDFT.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.algorithms;
+
+/**
+ * SlidingDFT tracks values of chosen DFT bins over a window
+ * of last N samples and updates them with every new sample.
+ *
+ * Unlike FFT, which transforms whole window at once, sliding DFT
+ * adds the newest sample and removes the oldest one from every tracked bin:
+ *
+ * X(n) = x(n) + e^(iw) * X(n-1) - e^(iwN) * x(n-N)
+ *
+ * Bins may have any frequency, they don't have to be multiples
+ * of sampleRate/N. Magnitudes have the same scale as magnitudes
+ * of FFT calculated over the same window.
+ *
+ * Time complexity of update: O(m)
+ * Where m is number of tracked bins (independent of window size).
+ *
+ * @author Krzysztof Pajk
+ */
+public class SlidingDFT
+{
+	//Window size, number of last samples taken into account
+	private final int N;
+	
+	//Circular buffer with last N samples
+	private final double[] history;
+	private int position = 0;
+	
+	//Current values of tracked bins
+	private final double[] re;
+	private final double[] im;
+	
+	//Rotation applied to bin with every sample, e^(iw)
+	private final double[] rotRe;
+	private final double[] rotIm;
+	
+	//Rotation of sample leaving the window, e^(iwN)
+	private final double[] outRe;
+	private final double[] outIm;
+	
+	/**
+	 * Class constructor specifying tracked frequencies and window size.
+	 *
+	 * @param frequencies	Frequencies of tracked bins (Hz).
+	 * @param windowSize	Number of last samples taken into account.
+	 * @param sampleRate	Sampling rate.
+	 */
+	public SlidingDFT(double[] frequencies, int windowSize, int sampleRate)
+	{
+		if(windowSize < 1)
+		{
+			throw new IllegalArgumentException("Window size has to be positive");
+		}
+		
+		this.N = windowSize;
+		this.history = new double[windowSize];
+		
+		final int length = frequencies.length;
+		this.re = new double[length];
+		this.im = new double[length];
+		this.rotRe = new double[length];
+		this.rotIm = new double[length];
+		this.outRe = new double[length];
+		this.outIm = new double[length];
+		
+		for(int k=0; k<length; k++)
+		{
+			double w = 2.0 * Math.PI * frequencies[k] / sampleRate;
+			rotRe[k] = Math.cos(w);
+			rotIm[k] = Math.sin(w);
+			outRe[k] = Math.cos(w * windowSize);
+			outIm[k] = Math.sin(w * windowSize);
+		}
+	}
+	
+	/**
+	 * Adds new sample to the window and updates every tracked bin.
+	 * The oldest sample leaves the window.
+	 *
+	 * @param sample	New sample in time domain.
+	 */
+	public void update(double sample)
+	{
+		final double oldest = history[position];
+		history[position] = sample;
+		position = (position + 1 == N) ? 0 : position + 1;
+		
+		for(int k=0; k<re.length; k++)
+		{
+			double r = rotRe[k] * re[k] - rotIm[k] * im[k];
+			double i = rotRe[k] * im[k] + rotIm[k] * re[k];
+			re[k] = sample + r - outRe[k] * oldest;
+			im[k] = i - outIm[k] * oldest;
+		}
+	}
+	
+	/**
+	 * Adds new samples to the window one by one.
+	 *
+	 * @param samples	New samples in time domain.
+	 */
+	public void update(double[] samples)
+	{
+		for(int i=0; i<samples.length; i++)
+		{
+			update(samples[i]);
+		}
+	}
+	
+	/**
+	 * @param bin	Index of tracked bin.
+	 * @return		Current magnitude of tracked bin.
+	 */
+	public double magnitude(int bin)
+	{
+		return Math.sqrt(re[bin] * re[bin] + im[bin] * im[bin]);
+	}
+	
+	/**
+	 * Clears window and values of every tracked bin.
+	 */
+	public void reset()
+	{
+		for(int i=0; i<N; i++)
+		{
+			history[i] = 0.0;
+		}
+		for(int k=0; k<re.length; k++)
+		{
+			re[k] = 0.0;
+			im[k] = 0.0;
+		}
+		position = 0;
+	}
+	
+	/**
+	 * @return	Number of tracked bins.
+	 */
+	public int getBinCount()
+	{
+		return re.length;
+	}
+	
+	/**
+	 * @return	Window size.
+	 */
+	public int getWindowSize()
+	{
+		return N;
+	}
+}
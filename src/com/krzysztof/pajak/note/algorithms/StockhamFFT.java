@@ -0,0 +1,142 @@
+/**
+ * StockhamFFT.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.algorithms;
+import com.krzysztof.pajak.note.tools.Complex;
+
+/**
+ * StockhamFFT is an implementation of radix-2 Stockham autosort FFT.
+ * It's run method converts samples to frequency domain.
+ *
+ * Unlike IterativeFFT, it doesn't reorder data with bit reversal
+ * permutation before butterflies. Every stage reads one buffer and writes
+ * results to the other one already in the right order for the next stage,
+ * so after the last stage output is in natural order. Both reads and
+ * writes of every stage go through memory with unit stride:
+ *
+ * y[q + s*(2p)]   = x[q + s*p] + x[q + s*(p+m)]
+ * y[q + s*(2p+1)] = (x[q + s*p] - x[q + s*(p+m)]) * w^p
+ *
+ * Where n is size of current stage, m = n/2, s = N/n and w = e^(-2*pi*i/n).
+ *
+ * Twiddle factors and buffers are kept between calls,
+ * so one object should be used for many transforms of the same size.
+ *
+ * @author Krzysztof Pajk
+ */
+public class StockhamFFT extends AbstractAlgorithm
+{
+	//Size of the last transform, buffers and twiddle factors are calculated for it
+	private int N = 0;
+	
+	//Twiddle factors e^(-2*pi*i*k/N) for k < N/2
+	private double[] cos;
+	private double[] sin;
+	
+	//Two pairs of buffers, stages read one and write the other
+	private double[] xRe;
+	private double[] xIm;
+	private double[] yRe;
+	private double[] yIm;
+	
+	@Override
+	/**
+	 * Method converting samples from time domain
+	 * to frequency domain.
+	 *
+	 * Time complexity: O(n*lg(n))
+	 * Where n is size of input samples.
+	 *
+	 * @param input		Input sound samples in time domain.
+	 * @return			Input converted to frequency domain.
+	 */
+	public Complex[] run(double[] input)
+	{
+		final int size = IterativeFFT.getSize(input.length);
+		prepare(size);
+		
+		//Copying input samples and padding remaining space with zeros
+		System.arraycopy(input, 0, xRe, 0, input.length);
+		for(int i=input.length; i<N; i++)
+		{
+			xRe[i] = 0.0;
+		}
+		for(int i=0; i<N; i++)
+		{
+			xIm[i] = 0.0;
+		}
+		
+		//Calculating DFTs
+		double[] aRe = xRe;
+		double[] aIm = xIm;
+		double[] bRe = yRe;
+		double[] bIm = yIm;
+		for(int n=N, s=1; n>1; n/=2, s*=2)
+		{
+			final int m = n/2;
+			for(int p=0; p<m; p++)
+			{
+				final double wRe = cos[p*s];
+				final double wIm = sin[p*s];
+				final int in0 = s*p;
+				final int in1 = s*(p + m);
+				final int out0 = s*(2*p);
+				final int out1 = s*(2*p + 1);
+				for(int q=0; q<s; q++)
+				{
+					double r0 = aRe[in0 + q];
+					double i0 = aIm[in0 + q];
+					double r1 = aRe[in1 + q];
+					double i1 = aIm[in1 + q];
+					bRe[out0 + q] = r0 + r1;
+					bIm[out0 + q] = i0 + i1;
+					double dRe = r0 - r1;
+					double dIm = i0 - i1;
+					bRe[out1 + q] = dRe*wRe - dIm*wIm;
+					bIm[out1 + q] = dRe*wIm + dIm*wRe;
+				}
+			}
+			
+			//Swapping buffers
+			double[] t = aRe; aRe = bRe; bRe = t;
+			t = aIm; aIm = bIm; bIm = t;
+		}
+		
+		Complex[] output = new Complex[N];
+		for(int i=0; i<N; i++)
+		{
+			output[i] = new Complex(aRe[i], aIm[i]);
+		}
+		return output;
+	}
+	
+	/**
+	 * Calculates twiddle factors and allocates buffers,
+	 * unless they are already calculated for this size.
+	 * @param size	Size of transform, power of 2.
+	 */
+	private void prepare(int size)
+	{
+		if(size == N)
+		{
+			return;
+		}
+		N = size;
+		
+		cos = new double[N/2];
+		sin = new double[N/2];
+		for(int k=0; k<N/2; k++)
+		{
+			double arg = (-2.0) * Math.PI * k / N;
+			cos[k] = Math.cos(arg);
+			sin[k] = Math.sin(arg);
+		}
+		
+		xRe = new double[N];
+		xIm = new double[N];
+		yRe = new double[N];
+		yIm = new double[N];
+	}
+}
@@ -0,0 +1,414 @@
+/**
+ * DetectBenchmark.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.benchmark;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+
+import com.krzysztof.pajak.note.algorithms.AbstractAlgorithm;
+import com.krzysztof.pajak.note.algorithms.DirectDFT;
+import com.krzysztof.pajak.note.algorithms.IterativeFFT;
+import com.krzysztof.pajak.note.algorithms.RecursiveFFT;
+import com.krzysztof.pajak.note.algorithms.StockhamFFT;
+import com.krzysztof.pajak.note.detect.NoteDetect;
+import com.krzysztof.pajak.note.detect.NoteEstimate;
+import com.krzysztof.pajak.note.tools.NoteLookup;
+import com.krzysztof.pajak.note.tools.SignalGenerator;
+
+/**
+ * DetectBenchmark runs every frequency domain algorithm through NoteDetect
+ * on the same synthetic workload and reports throughput, latency
+ * and accuracy side by side.
+ *
+ * Workload is created by SignalGenerator with fixed seed: harmonic tones
+ * and sines of octaves 3 and 4, major and minor triads, noise and silence.
+ * Frame is correct if estimated set of letters is exactly the expected one
+ * (for noise and silence: no letters, or noise reported).
+ *
+ * Slow algorithms (DirectDFT) stop after time budget is used,
+ * so they are measured on the first part of the workload only.
+ * Their accuracy isn't comparable with the whole workload, so they
+ * are reported in separate rows, with number of measured frames.
+ *
+ * Results can be saved as a baseline and compared with later runs,
+ * which fail (exit code 1) when accuracy drops or throughput drops
+ * more than allowed.
+ *
+ * Usage: DetectBenchmark [options]
+ *  -algorithms A,B,...	simple names of algorithms, all by default
+ *  -frame N			samples in a frame, default 4096
+ *  -rate N				sampling rate, default 11025
+ *  -rounds N			measured rounds of whole workload, default 3
+ *  -budget N			seconds after which slow algorithm stops early, default 20
+ *  -save FILE			save results as baseline
+ *  -baseline FILE		compare results with baseline
+ *  -slowdown X			allowed drop of throughput, default 0.2 (20%)
+ *
+ * @author Krzysztof Pajk
+ */
+public class DetectBenchmark
+{
+	//Every implementation of AbstractAlgorithm
+	final static Class<?>[] algorithms = {IterativeFFT.class, StockhamFFT.class, RecursiveFFT.class, DirectDFT.class};
+	
+	//Seed of workload
+	final static long seed = 2016;
+	
+	//Allowed drop of accuracy before it is reported as regression
+	final static double accuracyMargin = 0.005;
+	
+	private final int frameSize;
+	private final int sampleRate;
+	private final int rounds;
+	
+	//Time after which algorithm stops early, in nanoseconds
+	private long budget = 20000000000L;
+	
+	//Frames of workload and expected bit masks of letters, -1 for no letters
+	private final ArrayList<double[]> frames = new ArrayList<double[]>();
+	private final ArrayList<Integer> expected = new ArrayList<Integer>();
+	
+	/**
+	 * Result of one algorithm.
+	 */
+	static class Result
+	{
+		String name;
+		int frames;
+		boolean complete;
+		double framesPerSecond;
+		double p50;
+		double p99;
+		double accuracy;
+	}
+	
+	/**
+	 * Creates workload.
+	 *
+	 * @param frameSize		Samples in a frame.
+	 * @param sampleRate	Sampling rate.
+	 * @param rounds		Measured rounds of whole workload.
+	 */
+	public DetectBenchmark(int frameSize, int sampleRate, int rounds)
+	{
+		this.frameSize = frameSize;
+		this.sampleRate = sampleRate;
+		this.rounds = rounds;
+		
+		SignalGenerator generator = new SignalGenerator(seed, sampleRate);
+		
+		//Tones and sines of octaves 3 and 4
+		for(int pitch=3*12; pitch<5*12; pitch++)
+		{
+			add(generator.tone(pitch, frameSize, 3), 1 << (pitch % 12));
+			if(pitch % 2 == 0)
+			{
+				add(generator.sine(NoteLookup.getFrequency(pitch), frameSize, 0.8), 1 << (pitch % 12));
+			}
+		}
+		
+		//Major and minor triads with roots in octave 3
+		for(int root=3*12; root<4*12; root++)
+		{
+			add(generator.chord(new int[] {root, root+4, root+7}, frameSize, 2), mask(root, root+4, root+7));
+			add(generator.chord(new int[] {root, root+3, root+7}, frameSize, 2), mask(root, root+3, root+7));
+		}
+		
+		//Noise and silence
+		for(int i=0; i<4; i++)
+		{
+			add(generator.noise(frameSize, 0.5), -1);
+		}
+		for(int i=0; i<2; i++)
+		{
+			add(generator.silence(frameSize), -1);
+		}
+	}
+	
+	private void add(double[] frame, int mask)
+	{
+		frames.add(frame);
+		expected.add(mask);
+	}
+	
+	private static int mask(int... pitches)
+	{
+		int mask = 0;
+		for(int i=0; i<pitches.length; i++)
+		{
+			mask |= 1 << (pitches[i] % 12);
+		}
+		return mask;
+	}
+	
+	/**
+	 * Runs workload with one algorithm: one round to warm up,
+	 * then measured rounds.
+	 *
+	 * @param algorithmClass	Class that extends AbstractAlgorithm class.
+	 * @return					Measured result.
+	 * @throws Exception
+	 */
+	public Result run(Class<? extends AbstractAlgorithm> algorithmClass) throws Exception
+	{
+		final int count = frames.size();
+		long[] times = new long[count * rounds];
+		int measured = 0;
+		int correct = 0;
+		double[] intensities = new double[12];
+		
+		long total = 0;
+		long warmup = 0;
+		for(int round=-1; round<rounds && total<budget; round++)
+		{
+			for(int i=0; i<count && total<budget && (round >= 0 || warmup < budget/4); i++)
+			{
+				//Detector filters its samples, so they are copied before measuring
+				double[] frame = frames.get(i).clone();
+				long start = System.nanoTime();
+				NoteDetect detect = new NoteDetect(frame, sampleRate);
+				detect.setAlgorithm(algorithmClass);
+				int mask = detect.runMask(NoteEstimate.getDefaultTolerance(), intensities);
+				long time = System.nanoTime() - start;
+				
+				//Warm-up round isn't measured
+				if(round < 0)
+				{
+					warmup += time;
+					continue;
+				}
+				times[measured++] = time;
+				total += time;
+				
+				int expectedMask = expected.get(i);
+				if(mask == expectedMask || (expectedMask == -1 && (mask == 0 || mask == NoteEstimate.noiseMask)))
+				{
+					correct++;
+				}
+			}
+		}
+		
+		Result result = new Result();
+		result.name = algorithmClass.getSimpleName();
+		result.frames = measured;
+		result.complete = (measured == count * rounds);
+		if(measured == 0)
+		{
+			return result;
+		}
+		
+		times = Arrays.copyOf(times, measured);
+		Arrays.sort(times);
+		result.framesPerSecond = measured / (total / 1e9);
+		result.p50 = times[(int)(0.50 * (measured - 1))] / 1e6;
+		result.p99 = times[(int)(0.99 * (measured - 1))] / 1e6;
+		result.accuracy = (double) correct / measured;
+		return result;
+	}
+	
+	/**
+	 * Changes time after which algorithm stops early.
+	 * @param seconds	Time budget, default 20 seconds.
+	 */
+	public void setBudget(double seconds)
+	{
+		this.budget = (long)(seconds * 1e9);
+	}
+	
+	/**
+	 * @return	Number of frames in one round of workload.
+	 */
+	public int getFrameCount()
+	{
+		return frames.size();
+	}
+	
+	/**
+	 * Saves results as baseline.
+	 */
+	static void save(ArrayList<Result> results, String file) throws IOException
+	{
+		Properties properties = new Properties();
+		for(Result r : results)
+		{
+			if(r.frames == 0)
+			{
+				continue;
+			}
+			properties.setProperty(r.name + ".frames", Integer.toString(r.frames));
+			properties.setProperty(r.name + ".fps", Double.toString(r.framesPerSecond));
+			properties.setProperty(r.name + ".p50", Double.toString(r.p50));
+			properties.setProperty(r.name + ".p99", Double.toString(r.p99));
+			properties.setProperty(r.name + ".accuracy", Double.toString(r.accuracy));
+		}
+		
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			properties.store(out, "DetectBenchmark baseline");
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	/**
+	 * Compares results with baseline.
+	 * @return	Number of regressions found.
+	 */
+	static int compare(ArrayList<Result> results, String file, double slowdown, PrintStream PS) throws IOException
+	{
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			properties.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		
+		int regressions = 0;
+		for(Result r : results)
+		{
+			if(r.frames == 0)
+			{
+				PS.println(r.name + ": no measurements");
+				continue;
+			}
+			String fps = properties.getProperty(r.name + ".fps");
+			String accuracy = properties.getProperty(r.name + ".accuracy");
+			if(fps == null || accuracy == null)
+			{
+				PS.println(r.name + ": not in baseline");
+				continue;
+			}
+			
+			//Accuracy of another part of workload isn't comparable
+			double baseFps = Double.parseDouble(fps);
+			double baseAccuracy = Double.parseDouble(accuracy);
+			if(!Integer.toString(r.frames).equals(properties.getProperty(r.name + ".frames")))
+			{
+				PS.println(r.name + ": other number of frames than baseline, accuracy not compared");
+				baseAccuracy = r.accuracy;
+			}
+			if(r.accuracy < baseAccuracy - accuracyMargin)
+			{
+				PS.printf(Locale.ROOT, "%s: REGRESSION accuracy %.3f, baseline %.3f%n", r.name, r.accuracy, baseAccuracy);
+				regressions++;
+			}
+			if(r.framesPerSecond < baseFps * (1.0 - slowdown))
+			{
+				PS.printf(Locale.ROOT, "%s: REGRESSION %.1f frames/s, baseline %.1f%n", r.name, r.framesPerSecond, baseFps);
+				regressions++;
+			}
+			if(r.accuracy > baseAccuracy + accuracyMargin)
+			{
+				PS.printf(Locale.ROOT, "%s: accuracy changed %.3f, baseline %.3f%n", r.name, r.accuracy, baseAccuracy);
+			}
+		}
+		return regressions;
+	}
+	
+	/**
+	 * Prints row of result table.
+	 */
+	static void print(Result r, PrintStream PS)
+	{
+		if(r.frames == 0)
+		{
+			PS.printf(Locale.ROOT, "%-16s no measurements%n", r.name);
+			return;
+		}
+		PS.printf(Locale.ROOT, "%-16s %12.1f %10.3f %10.3f %10.3f %8d%n", r.name, r.framesPerSecond, r.p50, r.p99, r.accuracy, r.frames);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws Exception
+	{
+		int frameSize = 4096;
+		int sampleRate = 11025;
+		int rounds = 3;
+		double budget = 20.0;
+		double slowdown = 0.2;
+		String save = null;
+		String baseline = null;
+		String names = null;
+		
+		for(int i=0; i+1<args.length; i+=2)
+		{
+			String value = args[i+1];
+			switch(args[i])
+			{
+				case "-algorithms": names = value; break;
+				case "-frame": frameSize = Integer.parseInt(value); break;
+				case "-rate": sampleRate = Integer.parseInt(value); break;
+				case "-rounds": rounds = Integer.parseInt(value); break;
+				case "-budget": budget = Double.parseDouble(value); break;
+				case "-save": save = value; break;
+				case "-baseline": baseline = value; break;
+				case "-slowdown": slowdown = Double.parseDouble(value); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		
+		DetectBenchmark benchmark = new DetectBenchmark(frameSize, sampleRate, rounds);
+		benchmark.setBudget(budget);
+		PrintStream PS = System.out;
+		PS.printf(Locale.ROOT, "%d frames of %d samples at %d Hz, %d rounds%n", benchmark.getFrameCount(), frameSize, sampleRate, rounds);
+		PS.printf(Locale.ROOT, "%-16s %12s %10s %10s %10s %8s%n", "Algorithm", "frames/s", "p50 ms", "p99 ms", "accuracy", "frames");
+		
+		ArrayList<Result> results = new ArrayList<Result>();
+		for(int i=0; i<algorithms.length; i++)
+		{
+			String name = algorithms[i].getSimpleName();
+			if(names != null && !Arrays.asList(names.split(",")).contains(name))
+			{
+				continue;
+			}
+			
+			Result r = benchmark.run((Class<? extends AbstractAlgorithm>) algorithms[i]);
+			results.add(r);
+			if(r.complete)
+			{
+				print(r, PS);
+			}
+		}
+		
+		//Algorithms stopped by time budget, measured on the first part of workload
+		boolean header = false;
+		for(Result r : results)
+		{
+			if(!r.complete)
+			{
+				if(!header)
+				{
+					PS.println("Stopped early, measured on the first frames only:");
+					header = true;
+				}
+				print(r, PS);
+			}
+		}
+		
+		if(save != null)
+		{
+			save(results, save);
+		}
+		if(baseline != null && compare(results, baseline, slowdown, PS) > 0)
+		{
+			System.exit(1);
+		}
+	}
+}
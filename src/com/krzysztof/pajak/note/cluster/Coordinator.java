@@ -0,0 +1,500 @@
+/**
+ * Coordinator.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.cluster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinator divides list of sound files (corpus) into shards
+ * and hands them to Worker processes over TCP sockets, so that
+ * corpus can be processed by many JVMs, each with its own heap.
+ *
+ * Workers connect to coordinator, which may start some of them itself
+ * on the same machine. Workers on other machines are started the same
+ * way, with address of coordinator. Every worker asks for a shard,
+ * processes it and sends results back, then asks for the next one.
+ *
+ * While connected, worker sends heartbeats. If coordinator doesn't
+ * receive anything from a worker for timeout, or connection is lost
+ * (for example process crashed), shard of that worker is handed again
+ * to another worker. Shard which fails too many times is reported
+ * as failed. Errors of single files (for example unsupported format)
+ * are part of results and are not retried.
+ *
+ * Results of shards are merged in order of input list,
+ * one line per file: path, tab and detected notes.
+ *
+ * Protocol (DataInputStream/DataOutputStream):
+ *  worker: READY						asks for a shard
+ *  coordinator: SHARD id count paths...	or STOP when everything is done
+ *  worker: HEARTBEAT					at any time
+ *  worker: RESULT id count lines...		results of shard
+ *
+ * Usage: Coordinator [options] LIST
+ *  LIST				file with paths of sound files, one per line, - for standard input
+ *  -port N				listening port, default 0 (any free port)
+ *  -workers N			number of local workers to start, default 0
+ *  -shard N			files in a shard, default 16
+ *  -timeout N			seconds without heartbeat after which shard is retried, default 10
+ *  -attempts N			attempts of a shard before it fails, default 3
+ *  -output FILE		merged results, standard output by default
+ *  -tolerance X		tolerance of estimation passed to local workers
+ *
+ * @author Krzysztof Pajk
+ */
+public class Coordinator
+{
+	//Messages of protocol
+	final static String READY = "READY";
+	final static String SHARD = "SHARD";
+	final static String STOP = "STOP";
+	final static String HEARTBEAT = "HEARTBEAT";
+	final static String RESULT = "RESULT";
+	
+	//How often idle connections check whether work is finished, in milliseconds
+	final static long pollInterval = 100;
+	
+	//Paths of files and merged results
+	private final String[] files;
+	private final String[] results;
+	
+	//Shards waiting for a worker and shards already finished (or failed)
+	private final LinkedBlockingDeque<Shard> queue = new LinkedBlockingDeque<Shard>();
+	private final boolean[] finished;
+	private final CountDownLatch remaining;
+	
+	//Time without message from worker after which its shard is retried, in milliseconds
+	private int timeout = 10000;
+	private int maxAttempts = 3;
+	
+	private ServerSocket server;
+	private volatile boolean done = false;
+	
+	//Local worker processes and arguments used to start them
+	private final ArrayList<Process> processes = new ArrayList<Process>();
+	private final ArrayList<String> workerArgs = new ArrayList<String>();
+	private int restarts = 0;
+	
+	/**
+	 * Creates coordinator and divides files into shards.
+	 *
+	 * @param files			Paths of sound files.
+	 * @param shardSize		Number of files in a shard.
+	 */
+	public Coordinator(List<String> files, int shardSize)
+	{
+		if(shardSize < 1)
+		{
+			throw new IllegalArgumentException("Shard has to contain at least one file");
+		}
+		this.files = files.toArray(new String[files.size()]);
+		this.results = new String[this.files.length];
+		
+		final int shards = (this.files.length + shardSize - 1) / shardSize;
+		for(int i=0; i<shards; i++)
+		{
+			queue.add(new Shard(i, i * shardSize, Math.min(shardSize, this.files.length - i * shardSize)));
+		}
+		this.finished = new boolean[shards];
+		this.remaining = new CountDownLatch(shards);
+	}
+	
+	/**
+	 * @param seconds	Time without heartbeat after which shard is retried.
+	 */
+	public void setTimeout(double seconds)
+	{
+		this.timeout = (int) (seconds * 1000);
+	}
+	
+	/**
+	 * @param attempts	Number of attempts of a shard before it fails.
+	 */
+	public void setMaxAttempts(int attempts)
+	{
+		this.maxAttempts = Math.max(1, attempts);
+	}
+	
+	/**
+	 * Starts listening for workers. Every worker is served by its own thread.
+	 *
+	 * @param port	Listening port, 0 for any free port.
+	 * @return		Port on which coordinator listens.
+	 * @throws IOException
+	 */
+	public int start(int port) throws IOException
+	{
+		server = new ServerSocket(port);
+		Thread acceptor = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				while(!done)
+				{
+					try
+					{
+						final Socket socket = server.accept();
+						Thread connection = new Thread(new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								serve(socket);
+							}
+						}, "coordinator-" + socket.getRemoteSocketAddress());
+						connection.setDaemon(true);
+						connection.start();
+					}
+					catch(IOException e)
+					{
+						//Server socket is closed when work is done
+					}
+				}
+			}
+		}, "coordinator-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return server.getLocalPort();
+	}
+	
+	/**
+	 * Starts worker processes on this machine, with the same
+	 * Java runtime and class path as coordinator.
+	 *
+	 * @param workers		Number of processes.
+	 * @param args			Additional arguments of workers, for example tolerance.
+	 * @throws IOException
+	 */
+	public void spawn(int workers, List<String> args) throws IOException
+	{
+		workerArgs.addAll(args);
+		for(int i=0; i<workers; i++)
+		{
+			processes.add(launch());
+		}
+	}
+	
+	/**
+	 * Starts one local worker process.
+	 */
+	private Process launch() throws IOException
+	{
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Worker.class.getName());
+		command.add("-host");
+		command.add("127.0.0.1");
+		command.add("-port");
+		command.add(String.valueOf(server.getLocalPort()));
+		command.addAll(workerArgs);
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+	
+	/**
+	 * Waits until every shard is finished or failed. Local workers
+	 * which exit before that are started again, at most
+	 * maxAttempts times per worker.
+	 *
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public void await() throws InterruptedException, IOException
+	{
+		while(!remaining.await(timeout / 2 + 1, TimeUnit.MILLISECONDS))
+		{
+			for(int i=0; i<processes.size(); i++)
+			{
+				if(!processes.get(i).isAlive() && restarts < maxAttempts * processes.size())
+				{
+					System.err.println("Restarting worker " + i + ", exit code " + processes.get(i).exitValue());
+					processes.set(i, launch());
+					restarts++;
+				}
+			}
+		}
+		
+		done = true;
+		server.close();
+		for(Process process : processes)
+		{
+			if(!process.waitFor(timeout, TimeUnit.MILLISECONDS))
+			{
+				process.destroy();
+			}
+		}
+	}
+	
+	/**
+	 * Serves one worker until it disconnects or work is done.
+	 * Shard of worker which fails or stops sending heartbeats is retried.
+	 */
+	private void serve(Socket socket)
+	{
+		Shard current = null;
+		try
+		{
+			socket.setSoTimeout(timeout);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			
+			while(true)
+			{
+				String message = in.readUTF();
+				if(HEARTBEAT.equals(message))
+				{
+					continue;
+				}
+				else if(RESULT.equals(message))
+				{
+					final int id = in.readInt();
+					String[] lines = new String[in.readInt()];
+					for(int i=0; i<lines.length; i++)
+					{
+						lines[i] = in.readUTF();
+					}
+					if(current == null || current.id != id || current.count != lines.length)
+					{
+						throw new IOException("Unexpected result of shard " + id);
+					}
+					finish(current, lines);
+					current = null;
+				}
+				else if(READY.equals(message))
+				{
+					current = take();
+					if(current == null)
+					{
+						out.writeUTF(STOP);
+						out.flush();
+						return;
+					}
+					out.writeUTF(SHARD);
+					out.writeInt(current.id);
+					out.writeInt(current.count);
+					for(int i=0; i<current.count; i++)
+					{
+						out.writeUTF(files[current.first + i]);
+					}
+					out.flush();
+				}
+				else
+				{
+					throw new IOException("Unknown message " + message);
+				}
+			}
+		}
+		catch(IOException | InterruptedException e)
+		{
+			if(current != null)
+			{
+				System.err.println("Worker " + socket.getRemoteSocketAddress() + " failed on shard " + current.id + ": " + e);
+			}
+		}
+		finally
+		{
+			if(current != null)
+			{
+				retry(current);
+			}
+			try
+			{
+				socket.close();
+			}
+			catch(IOException e)
+			{
+			}
+		}
+	}
+	
+	/**
+	 * Takes next shard, waiting while other workers may still fail.
+	 * @return	Shard, null if everything is done.
+	 */
+	private Shard take() throws InterruptedException
+	{
+		while(remaining.getCount() > 0)
+		{
+			Shard shard = queue.poll(pollInterval, TimeUnit.MILLISECONDS);
+			if(shard != null)
+			{
+				synchronized(this)
+				{
+					if(finished[shard.id])
+					{
+						continue;
+					}
+					shard.attempts++;
+				}
+				return shard;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Hands shard to another worker, or reports it as failed
+	 * after too many attempts.
+	 */
+	private void retry(Shard shard)
+	{
+		synchronized(this)
+		{
+			if(finished[shard.id])
+			{
+				return;
+			}
+		}
+		if(shard.attempts < maxAttempts)
+		{
+			queue.addFirst(shard);
+			return;
+		}
+		
+		String[] lines = new String[shard.count];
+		for(int i=0; i<shard.count; i++)
+		{
+			lines[i] = files[shard.first + i] + "\tERROR shard failed after " + shard.attempts + " attempts";
+		}
+		finish(shard, lines);
+	}
+	
+	/**
+	 * Saves results of shard, only once per shard.
+	 */
+	private synchronized void finish(Shard shard, String[] lines)
+	{
+		if(finished[shard.id])
+		{
+			return;
+		}
+		finished[shard.id] = true;
+		System.arraycopy(lines, 0, results, shard.first, shard.count);
+		remaining.countDown();
+	}
+	
+	/**
+	 * Writes merged results in order of input files.
+	 * @param PS	Output stream.
+	 */
+	public synchronized void write(PrintStream PS)
+	{
+		for(int i=0; i<results.length; i++)
+		{
+			PS.println((results[i] == null) ? files[i] + "\tERROR not processed" : results[i]);
+		}
+		PS.flush();
+	}
+	
+	/**
+	 * Reads list of files, one path per line, empty lines are skipped.
+	 */
+	static List<String> readList(InputStream input) throws IOException
+	{
+		ArrayList<String> list = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		String line;
+		while((line = reader.readLine()) != null)
+		{
+			if(!line.trim().isEmpty())
+			{
+				list.add(line.trim());
+			}
+		}
+		return list;
+	}
+	
+	public static void main(String[] args) throws Exception
+	{
+		int port = 0;
+		int workers = 0;
+		int shardSize = 16;
+		double timeout = 10.0;
+		int attempts = 3;
+		String output = null;
+		ArrayList<String> workerArgs = new ArrayList<String>();
+		
+		int i = 0;
+		for(; i+1<args.length; i+=2)
+		{
+			String value = args[i+1];
+			switch(args[i])
+			{
+				case "-port": port = Integer.parseInt(value); break;
+				case "-workers": workers = Integer.parseInt(value); break;
+				case "-shard": shardSize = Integer.parseInt(value); break;
+				case "-timeout": timeout = Double.parseDouble(value); break;
+				case "-attempts": attempts = Integer.parseInt(value); break;
+				case "-output": output = value; break;
+				case "-tolerance": workerArgs.add(args[i]); workerArgs.add(value); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if(i != args.length - 1)
+		{
+			throw new IllegalArgumentException("Usage: Coordinator [options] LIST");
+		}
+		
+		List<String> files;
+		InputStream input = "-".equals(args[i]) ? System.in : new FileInputStream(args[i]);
+		try
+		{
+			files = readList(input);
+		}
+		finally
+		{
+			if(input != System.in)
+			{
+				input.close();
+			}
+		}
+		
+		Coordinator coordinator = new Coordinator(files, shardSize);
+		coordinator.setTimeout(timeout);
+		coordinator.setMaxAttempts(attempts);
+		port = coordinator.start(port);
+		System.err.println("Coordinator of " + files.size() + " files listening on port " + port);
+		coordinator.spawn(workers, workerArgs);
+		coordinator.await();
+		
+		if(output == null)
+		{
+			coordinator.write(System.out);
+		}
+		else
+		{
+			PrintStream PS = new PrintStream(new FileOutputStream(output), false, "UTF-8");
+			try
+			{
+				coordinator.write(PS);
+			}
+			finally
+			{
+				PS.close();
+			}
+		}
+	}
+}
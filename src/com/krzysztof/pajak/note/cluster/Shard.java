@@ -0,0 +1,30 @@
+/**
+ * Shard.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.cluster;
+
+/**
+ * Shard is a range of consecutive files of corpus,
+ * the unit of work handed to one worker.
+ *
+ * @author Krzysztof Pajk
+ */
+class Shard
+{
+	//ID of shard, position of its first file and number of files
+	final int id;
+	final int first;
+	final int count;
+	
+	//Number of times shard was handed to a worker
+	int attempts = 0;
+	
+	Shard(int id, int first, int count)
+	{
+		this.id = id;
+		this.first = first;
+		this.count = count;
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * Worker.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.cluster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import com.krzysztof.pajak.note.detect.NoteDetect;
+import com.krzysztof.pajak.note.detect.NoteEstimate;
+
+/**
+ * Worker processes shards of corpus handed by Coordinator.
+ * Every file of shard is read, converted to mono samples
+ * and its notes are detected with NoteDetect.
+ *
+ * Result of a file is one line: path, tab and letters of detected
+ * notes separated by spaces, "-" for silence, "noise" for noise
+ * or "ERROR" followed by description when file can't be processed.
+ *
+ * Heartbeats are sent by separate thread, so that coordinator
+ * knows worker is alive even while it processes long files.
+ *
+ * Usage: Worker [options]
+ *  -host H				address of coordinator, default 127.0.0.1
+ *  -port N				port of coordinator
+ *  -tolerance X		tolerance of estimation, default of NoteEstimate
+ *  -heartbeat N		seconds between heartbeats, default 2
+ *
+ * @author Krzysztof Pajk
+ */
+public class Worker
+{
+	private final String host;
+	private final int port;
+	
+	private double tolerance = NoteEstimate.getDefaultTolerance();
+	
+	//Time between heartbeats, in milliseconds
+	private long heartbeat = 2000;
+	
+	/**
+	 * Creates worker of coordinator with given address.
+	 *
+	 * @param host	Address of coordinator.
+	 * @param port	Port of coordinator.
+	 */
+	public Worker(String host, int port)
+	{
+		this.host = host;
+		this.port = port;
+	}
+	
+	/**
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 */
+	public void setTolerance(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+	
+	/**
+	 * @param seconds	Time between heartbeats, has to be shorter than timeout of coordinator.
+	 */
+	public void setHeartbeat(double seconds)
+	{
+		this.heartbeat = (long) (seconds * 1000);
+	}
+	
+	/**
+	 * Connects to coordinator and processes shards until
+	 * coordinator tells that everything is done.
+	 *
+	 * @throws IOException
+	 */
+	public void run() throws IOException
+	{
+		Socket socket = new Socket(host, port);
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			
+			Thread beat = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						while(true)
+						{
+							Thread.sleep(heartbeat);
+							synchronized(out)
+							{
+								out.writeUTF(Coordinator.HEARTBEAT);
+								out.flush();
+							}
+						}
+					}
+					catch(IOException | InterruptedException e)
+					{
+						//Connection is closed
+					}
+				}
+			}, "worker-heartbeat");
+			beat.setDaemon(true);
+			beat.start();
+			
+			try
+			{
+				while(true)
+				{
+					synchronized(out)
+					{
+						out.writeUTF(Coordinator.READY);
+						out.flush();
+					}
+					
+					String message = in.readUTF();
+					if(Coordinator.STOP.equals(message))
+					{
+						return;
+					}
+					if(!Coordinator.SHARD.equals(message))
+					{
+						throw new IOException("Unknown message " + message);
+					}
+					
+					final int id = in.readInt();
+					String[] lines = new String[in.readInt()];
+					for(int i=0; i<lines.length; i++)
+					{
+						lines[i] = in.readUTF();
+					}
+					for(int i=0; i<lines.length; i++)
+					{
+						lines[i] = lines[i] + "\t" + process(new File(lines[i]));
+					}
+					
+					synchronized(out)
+					{
+						out.writeUTF(Coordinator.RESULT);
+						out.writeInt(id);
+						out.writeInt(lines.length);
+						for(int i=0; i<lines.length; i++)
+						{
+							out.writeUTF(lines[i]);
+						}
+						out.flush();
+					}
+				}
+			}
+			finally
+			{
+				beat.interrupt();
+			}
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+	
+	/**
+	 * Detects notes of one file.
+	 * @return	Detected letters, "-", "noise" or error.
+	 */
+	private String process(File file)
+	{
+		try
+		{
+			AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+			try
+			{
+				//Converting to 16 bit signed little endian samples
+				AudioFormat source = stream.getFormat();
+				AudioFormat format = new AudioFormat(source.getSampleRate(), 16, source.getChannels(), true, false);
+				AudioInputStream pcm = AudioSystem.getAudioInputStream(format, stream);
+				
+				final int channels = format.getChannels();
+				byte[] bytes = readAll(pcm);
+				double[] samples = new double[bytes.length / (2 * channels)];
+				for(int i=0; i<samples.length; i++)
+				{
+					//Mixing channels down to mono
+					double sum = 0.0;
+					for(int c=0; c<channels; c++)
+					{
+						final int j = 2 * (i * channels + c);
+						sum += (short) ((bytes[j] & 0xFF) | (bytes[j+1] << 8));
+					}
+					samples[i] = sum / (channels * 32768.0);
+				}
+				
+				NoteDetect detect = new NoteDetect(samples, (int) format.getSampleRate());
+				final int mask = detect.runMask(tolerance, null);
+				if(mask == 0)
+				{
+					return "-";
+				}
+				if(mask == NoteEstimate.noiseMask)
+				{
+					return "noise";
+				}
+				
+				StringBuilder notes = new StringBuilder();
+				for(String note : NoteEstimate.maskToNotes(mask))
+				{
+					notes.append((notes.length() > 0) ? " " : "").append(note);
+				}
+				return notes.toString();
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		catch(Exception e)
+		{
+			return "ERROR " + e;
+		}
+	}
+	
+	/**
+	 * Reads whole stream.
+	 */
+	private static byte[] readAll(AudioInputStream stream) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[65536];
+		int n;
+		while((n = stream.read(buffer)) > 0)
+		{
+			bytes.write(buffer, 0, n);
+		}
+		return bytes.toByteArray();
+	}
+	
+	public static void main(String[] args) throws Exception
+	{
+		String host = "127.0.0.1";
+		int port = -1;
+		double tolerance = NoteEstimate.getDefaultTolerance();
+		double heartbeat = 2.0;
+		
+		for(int i=0; i+1<args.length; i+=2)
+		{
+			String value = args[i+1];
+			switch(args[i])
+			{
+				case "-host": host = value; break;
+				case "-port": port = Integer.parseInt(value); break;
+				case "-tolerance": tolerance = Double.parseDouble(value); break;
+				case "-heartbeat": heartbeat = Double.parseDouble(value); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if(port < 0)
+		{
+			throw new IllegalArgumentException("Port of coordinator is required");
+		}
+		
+		Worker worker = new Worker(host, port);
+		worker.setTolerance(tolerance);
+		worker.setHeartbeat(heartbeat);
+		worker.run();
+	}
+}
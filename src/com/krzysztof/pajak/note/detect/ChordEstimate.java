@@ -0,0 +1,247 @@
+/**
+ * ChordEstimate.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import com.krzysztof.pajak.note.tools.NoteLookup;
+
+/**
+ * ChordEstimate names chords formed by notes estimated by NoteEstimate.
+ *
+ * Every set of letters (pitch classes) is a 12-bit mask, the same as
+ * returned by NoteEstimate.getNotesMask(), so all 4096 sets are looked up
+ * in a table calculated once, when class is loaded. Chord of a frame
+ * is then found with a single array read.
+ *
+ * Table contains triads, sixth and seventh chords (also without fifth)
+ * and power chords, with any root. Letters don't carry octaves, so every
+ * inversion of a chord has the same set and is recognized as well.
+ *
+ * Some sets fit more than one chord, for example C6 and Am7 or
+ * symmetric augmented and diminished seventh chords. Table keeps
+ * the most common reading first, and when intensities of letters
+ * are given, chord with the strongest root is chosen.
+ *
+ * Chord is returned as int: root*16 + index of quality, or noChord.
+ *
+ * @author Krzysztof Pajk
+ */
+public class ChordEstimate
+{
+	/**
+	 * Returned when set of letters isn't a known chord.
+	 */
+	public final static int noChord = -1;
+	
+	//Names of chord qualities, appended to letter of root
+	final static String[] qualities = {"", "m", "7", "maj7", "m7", "dim", "aug", "sus4", "sus2",
+		"m7b5", "dim7", "mM7", "6", "m6", "5"};
+	
+	//Intervals of every quality in semitones above root, in the same order.
+	//Chords checked first are preferred when set fits more than one chord.
+	final static int[][] intervals = {
+		{0, 4, 7},
+		{0, 3, 7},
+		{0, 4, 7, 10},
+		{0, 4, 7, 11},
+		{0, 3, 7, 10},
+		{0, 3, 6},
+		{0, 4, 8},
+		{0, 5, 7},
+		{0, 2, 7},
+		{0, 3, 6, 10},
+		{0, 3, 6, 9},
+		{0, 3, 7, 11},
+		{0, 4, 7, 9},
+		{0, 3, 7, 9},
+		{0, 7}
+	};
+	
+	//Seventh chords are often played without fifth
+	final static int[] withoutFifth = {2, 3, 4, 11};
+	
+	//The first chord fitting every set, noChord if none
+	private final static int[] chords = new int[4096];
+	
+	//Every chord fitting a set, only for sets with more than one chord
+	private final static int[][] alternatives = new int[4096][];
+	
+	static
+	{
+		for(int i=0; i<chords.length; i++)
+		{
+			chords[i] = noChord;
+		}
+		
+		//Complete chords first, then chords without fifth
+		for(int q=0; q<intervals.length; q++)
+		{
+			for(int root=0; root<12; root++)
+			{
+				add(toMask(intervals[q], root, false), root*16 + q);
+			}
+		}
+		for(int i=0; i<withoutFifth.length; i++)
+		{
+			int q = withoutFifth[i];
+			for(int root=0; root<12; root++)
+			{
+				add(toMask(intervals[q], root, true), root*16 + q);
+			}
+		}
+	}
+	
+	/**
+	 * Adds chord to the table.
+	 * @param mask	Set of letters.
+	 * @param chord	Chord, root*16 + index of quality.
+	 */
+	private static void add(int mask, int chord)
+	{
+		if(chords[mask] == noChord)
+		{
+			chords[mask] = chord;
+			return;
+		}
+		
+		int[] previous = alternatives[mask];
+		if(previous == null)
+		{
+			previous = new int[] {chords[mask]};
+		}
+		int[] next = new int[previous.length + 1];
+		System.arraycopy(previous, 0, next, 0, previous.length);
+		next[previous.length] = chord;
+		alternatives[mask] = next;
+	}
+	
+	/**
+	 * Calculates set of letters of a chord.
+	 * @param intervals		Intervals above root in semitones.
+	 * @param root			Index of root letter.
+	 * @param omitFifth		If true, perfect fifth is left out.
+	 * @return				Set of letters as bit mask.
+	 */
+	private static int toMask(int[] intervals, int root, boolean omitFifth)
+	{
+		int mask = 0;
+		for(int i=0; i<intervals.length; i++)
+		{
+			if(!(omitFifth && intervals[i] == 7))
+			{
+				mask |= 1 << ((root + intervals[i]) % 12);
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Finds chord formed by set of letters.
+	 *
+	 * Time complexity: O(1)
+	 *
+	 * @param mask	Set of letters, bit i set if i-th letter of NoteLookup.getLetters() is played.
+	 * @return		Chord, root*16 + index of quality, or noChord.
+	 */
+	public static int getChord(int mask)
+	{
+		if(mask < 0 || mask >= chords.length)
+		{
+			return noChord;
+		}
+		return chords[mask];
+	}
+	
+	/**
+	 * Finds chord formed by set of letters. If set fits more than
+	 * one chord, the one whose root is the most intense is chosen.
+	 *
+	 * @param mask			Set of letters, bit i set if i-th letter of NoteLookup.getLetters() is played.
+	 * @param intensities	Summed intensity of every letter, as calculated by NoteEstimate.getNotesMask().
+	 * @return				Chord, root*16 + index of quality, or noChord.
+	 */
+	public static int getChord(int mask, double[] intensities)
+	{
+		int chord = getChord(mask);
+		if(chord == noChord || intensities == null || alternatives[mask] == null)
+		{
+			return chord;
+		}
+		
+		//Earlier chords win ties
+		int[] candidates = alternatives[mask];
+		for(int i=1; i<candidates.length; i++)
+		{
+			if(intensities[getRoot(candidates[i])] > intensities[getRoot(chord)])
+			{
+				chord = candidates[i];
+			}
+		}
+		return chord;
+	}
+	
+	/**
+	 * Finds chord formed by estimated notes.
+	 * @param notes		Letters, as returned by NoteEstimate.getNotes().
+	 * @return			Chord, root*16 + index of quality, or noChord.
+	 */
+	public static int getChord(String[] notes)
+	{
+		return getChord(NoteEstimate.notesToMask(notes));
+	}
+	
+	/**
+	 * Returns every chord formed by set of letters, in order of preference.
+	 * @param mask	Set of letters, bit i set if i-th letter of NoteLookup.getLetters() is played.
+	 * @return		Array of chords, empty if set isn't a known chord.
+	 */
+	public static int[] getChords(int mask)
+	{
+		int chord = getChord(mask);
+		if(chord == noChord)
+		{
+			return new int[0];
+		}
+		if(alternatives[mask] == null)
+		{
+			return new int[] {chord};
+		}
+		return alternatives[mask].clone();
+	}
+	
+	/**
+	 * @param chord		Chord, root*16 + index of quality.
+	 * @return			Index of root letter in NoteLookup.getLetters().
+	 */
+	public static int getRoot(int chord)
+	{
+		return chord >> 4;
+	}
+	
+	/**
+	 * @param chord		Chord, root*16 + index of quality.
+	 * @return			Name of quality, for example "m7", empty for major triad, null for noChord.
+	 */
+	public static String getQuality(int chord)
+	{
+		if(chord == noChord)
+		{
+			return null;
+		}
+		return qualities[chord & 15];
+	}
+	
+	/**
+	 * @param chord		Chord, root*16 + index of quality.
+	 * @return			Name of chord, for example "C#m7", null for noChord.
+	 */
+	public static String getName(int chord)
+	{
+		if(chord == noChord)
+		{
+			return null;
+		}
+		return NoteLookup.getLetters()[getRoot(chord)] + getQuality(chord);
+	}
+}
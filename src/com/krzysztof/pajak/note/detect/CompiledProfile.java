@@ -0,0 +1,286 @@
+/**
+ * CompiledProfile.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import com.krzysztof.pajak.note.algorithms.FFTPlan;
+import com.krzysztof.pajak.note.processing.Biquad;
+
+/**
+ * CompiledProfile contains everything that DetectorProfile determines
+ * for given sampling rate and resolution of spectrum, calculated once:
+ * ranges of bins searched for every note, bounds of interpolated peaks,
+ * filters and (optionally) FFT plan. Estimating notes with these tables
+ * doesn't calculate any frequency or bin index per frame, so switching
+ * between compiled profiles costs nothing.
+ *
+ * Estimate of DetectorProfile.DEFAULT is exactly the same as of
+ * NoteEstimate.getNotesMask() for the same spectrum.
+ * Compiled profile is immutable and can be shared by many threads.
+ *
+ * @author Krzysztof Pajk
+ */
+public final class CompiledProfile
+{
+	private final DetectorProfile profile;
+	private final int sampleRate;
+	private final double binWidth;
+	private final int bins;
+	
+	//Number of summed octaves and letters that can be detected
+	private final int octaves;
+	private final int letters;
+	
+	//Bins [start, end) searched for note, index is letter*octaves + octave
+	private final int[] start;
+	private final int[] end;
+	
+	//Bounds of frequency of interpolated peak of note (Hz), the same index
+	private final double[] low;
+	private final double[] high;
+	
+	//Filters, and plan, null if profile was compiled for spectrum calculated elsewhere
+	private final Biquad highPass;
+	private final Biquad lowPass;
+	private final FFTPlan plan;
+	
+	/**
+	 * Compiles tables, see DetectorProfile.compile().
+	 */
+	CompiledProfile(DetectorProfile profile, int sampleRate, double binWidth, int bins, int fftSize)
+	{
+		this.profile = profile;
+		this.sampleRate = sampleRate;
+		this.binWidth = binWidth;
+		this.bins = bins;
+		this.octaves = profile.getHighestOctave() - profile.getLowestOctave() + 1;
+		this.letters = profile.getLetters();
+		
+		start = new int[12 * octaves];
+		end = new int[12 * octaves];
+		low = new double[12 * octaves];
+		high = new double[12 * octaves];
+		
+		//The same ranges as in NoteEstimate, at least one bin is searched
+		for(int letter=0; letter<12; letter++)
+		{
+			for(int octave=0; octave<octaves; octave++)
+			{
+				final int i = letter*octaves + octave;
+				final double pitch = profile.getFrequency((profile.getLowestOctave() + octave)*12 + letter);
+				start[i] = NoteEstimate.startBin(pitch, binWidth);
+				end[i] = NoteEstimate.endBin(pitch, binWidth, bins);
+				low[i] = pitch/NoteEstimate.halfSemitone;
+				high[i] = pitch*NoteEstimate.halfSemitone;
+			}
+		}
+		
+		highPass = Biquad.highPass((int) profile.getHighPassFrequency(), profile.getHighPassResonance(), sampleRate);
+		lowPass = Biquad.lowPass((int) profile.getLowPassFrequency(), profile.getLowPassResonance(), sampleRate);
+		plan = (fftSize > 0) ? new FFTPlan(fftSize) : null;
+	}
+	
+	/**
+	 * Detecting pitch classes of the most probable notes played,
+	 * returned as a bit mask, like NoteEstimate.getNotesMask().
+	 *
+	 * @param spectrum		Magnitudes (or squared magnitudes) in frequency domain, resolution of this profile.
+	 * @param power			If true, spectrum contains squared magnitudes.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask of letters, NoteEstimate.noiseMask if sound is probably noise.
+	 */
+	public int getNotesMask(double[] spectrum, boolean power, double tolerance, double[] intensities)
+	{
+		return getNotesMask(spectrum, power, tolerance, NoteEstimate.Interpolation.NONE, 0.0, intensities);
+	}
+	
+	/**
+	 * Detecting pitch classes of the most probable notes played,
+	 * with sub-bin interpolation of spectral peaks and optional
+	 * harmonic reinforcement, returned as a bit mask.
+	 *
+	 * @param spectrum		Magnitudes (or squared magnitudes) in frequency domain, resolution of this profile.
+	 * @param power			If true, spectrum contains squared magnitudes.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param interpolation	Method of interpolating peaks.
+	 * @param harmonicWeight	Weight of harmonic reinforcement, 0.0 to disable.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask of letters, NoteEstimate.noiseMask if sound is probably noise.
+	 */
+	public int getNotesMask(double[] spectrum, boolean power, double tolerance,
+			NoteEstimate.Interpolation interpolation, double harmonicWeight, double[] intensities)
+	{
+		double[] values = (intensities == null) ? NoteEstimate.scratch.get() : intensities;
+		
+		for(int letter=0; letter<12; letter++)
+		{
+			values[letter] = 0.0;
+			if((letters & (1 << letter)) == 0)
+			{
+				continue;
+			}
+			
+			//Summing intensity of letter in every octave, in the same order as NoteEstimate
+			double sum = 0.0;
+			double previous = 0.0;
+			for(int octave=0; octave<octaves; octave++)
+			{
+				final int i = letter*octaves + octave;
+				double max = 0.0;
+				if(interpolation == NoteEstimate.Interpolation.NONE)
+				{
+					final int last = Math.min(end[i], spectrum.length);
+					for(int j=start[i]; j<last; j++)
+					{
+						max = Math.max(max, spectrum[j]);
+					}
+				}
+				else
+				{
+					max = NoteEstimate.getPeak(spectrum, low[i], high[i], binWidth, interpolation == NoteEstimate.Interpolation.GAUSSIAN);
+				}
+				
+				double value = power ? Math.sqrt(max) : max;
+				sum += value;
+				if(octave > 0)
+				{
+					sum += harmonicWeight * Math.min(previous, value);
+				}
+				previous = value;
+			}
+			values[letter] = sum;
+		}
+		
+		return NoteEstimate.selectNotes(values, tolerance);
+	}
+	
+	/**
+	 * Estimates notes played in a frame with filters and FFT of this profile,
+	 * on workspace provided by caller, so nothing is allocated per frame.
+	 * Profile has to be compiled for frame length (see DetectorProfile.compile(int, int)).
+	 *
+	 * @param samples		Samples in time domain, at most getSize() of them are used.
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @param re			Workspace of getSize() values.
+	 * @param im			Workspace of getSize() values.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask, 0 if sound is too quiet, NoteEstimate.noiseMask if it is noise.
+	 */
+	public int runMask(double[] samples, double tolerance, double[] re, double[] im, double[] intensities)
+	{
+		if(plan == null)
+		{
+			throw new IllegalStateException("Profile is not compiled for frame length");
+		}
+		final int N = plan.getSize();
+		final int length = Math.min(samples.length, N);
+		if(length < 2)
+		{
+			throw new IllegalArgumentException("No samples given as an input");
+		}
+		
+		double sum = 0.0;
+		for(int i=0; i<length; i++)
+		{
+			re[i] = samples[i];
+			sum += Math.abs(samples[i]);
+		}
+		if(sum / length < NoteDetect.silenceTreshold)
+		{
+			return 0;
+		}
+		
+		filter(re, length);
+		for(int i=length; i<N; i++)
+		{
+			re[i] = 0.0;
+		}
+		for(int i=0; i<N; i++)
+		{
+			im[i] = 0.0;
+		}
+		
+		plan.forward(re, im);
+		for(int k=0; k<bins; k++)
+		{
+			re[k] = re[k]*re[k] + im[k]*im[k];
+		}
+		return getNotesMask(re, true, tolerance, intensities);
+	}
+	
+	/**
+	 * Applies high pass and low pass filters of profile in place.
+	 * Filters don't keep state between calls, so many threads can use them.
+	 *
+	 * @param samples	Samples in time domain.
+	 * @param length	Number of samples filtered, from the first one.
+	 */
+	public void filter(double[] samples, int length)
+	{
+		highPass.run(samples, length);
+		lowPass.run(samples, length);
+	}
+	
+	/**
+	 * Returns number of bins read by estimating without interpolation,
+	 * so magnitudes of higher bins don't have to be calculated.
+	 *
+	 * @return	Index of the last bin read, plus one.
+	 */
+	public int getUsedBins()
+	{
+		int used = 0;
+		for(int i=0; i<end.length; i++)
+		{
+			used = Math.max(used, end[i]);
+		}
+		return used;
+	}
+	
+	/**
+	 * Checks whether tables fit spectrum with given layout.
+	 *
+	 * @param sampleRate	Sampling rate.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param bins			Number of bins of spectrum.
+	 * @return				True if profile was compiled for them.
+	 */
+	public boolean matches(int sampleRate, double binWidth, int bins)
+	{
+		return this.sampleRate == sampleRate && this.binWidth == binWidth && this.bins == bins;
+	}
+	
+	/**
+	 * @return	Profile compiled into these tables.
+	 */
+	public DetectorProfile getProfile()
+	{
+		return profile;
+	}
+	
+	/**
+	 * @return	Sampling rate.
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+	
+	/**
+	 * @return	Difference of frequency between adjacent bins (Hz).
+	 */
+	public double getBinWidth()
+	{
+		return binWidth;
+	}
+	
+	/**
+	 * @return	Size of FFT, 0 if profile is compiled for spectrum calculated elsewhere.
+	 */
+	public int getSize()
+	{
+		return (plan == null) ? 0 : plan.getSize();
+	}
+}
@@ -0,0 +1,259 @@
+/**
+ * DetectorProfile.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.krzysztof.pajak.note.algorithms.IterativeFFT;
+import com.krzysztof.pajak.note.tools.NoteLookup;
+
+/**
+ * DetectorProfile describes an instrument for detectors: range of octaves
+ * which intensities are summed, tuning (frequency of A4), set of letters
+ * that can be detected and cutoffs of filters applied before FFT.
+ *
+ * Profile is immutable, so it can be shared by many detectors and threads.
+ * Every with...() method returns a new profile, for example:
+ *
+ *  DetectorProfile bass = DetectorProfile.DEFAULT.withOctaves(0, 3).withHighPass(2 * 12, 1.4).withLowPass(4 * 12, 0.5);
+ *  DetectorProfile baroque = DetectorProfile.DEFAULT.withTuning(415.0);
+ *
+ * Before detection profile is compiled (see compile()) into CompiledProfile,
+ * with ranges of bins of every note, filters and FFT plan, so that nothing
+ * depending on profile is calculated per frame. Profile compiled for spectrum
+ * calculated elsewhere is cached, so detectors created for every frame
+ * share tables of the same layout. DEFAULT profile gives exactly the same
+ * results as detectors without a profile.
+ *
+ * @author Krzysztof Pajk
+ */
+public final class DetectorProfile
+{
+	//Pitch of A4 in NoteLookup, reference of tuning
+	final static int referencePitch = 4 * 12 + 9;
+	
+	//Cache is cleared when it contains more compiled profiles
+	final static int maxCached = 64;
+	
+	/**
+	 * Profile used by detectors by default: octaves 2 to 5, tuning
+	 * of NoteLookup (C0 = 16.35 Hz), all letters, high pass filter
+	 * at C3 and low pass filter at C4.
+	 */
+	public final static DetectorProfile DEFAULT = new DetectorProfile(NoteEstimate.lowestOctave, NoteEstimate.highestOctave,
+			NoteLookup.getFrequency(referencePitch), 0xFFF, 3 * 12, 1.4, 4 * 12, 0.5);
+	
+	private final int lowestOctave;
+	private final int highestOctave;
+	private final double tuning;
+	private final int letters;
+	private final int highPassPitch;
+	private final double highPassResonance;
+	private final int lowPassPitch;
+	private final double lowPassResonance;
+	
+	//Profiles compiled for spectrum calculated elsewhere, key is sampling rate and number of bins
+	private final ConcurrentHashMap<Long, CompiledProfile> compiled = new ConcurrentHashMap<Long, CompiledProfile>();
+	
+	private DetectorProfile(int lowestOctave, int highestOctave, double tuning, int letters,
+			int highPassPitch, double highPassResonance, int lowPassPitch, double lowPassResonance)
+	{
+		if(lowestOctave < 0 || highestOctave < lowestOctave || highestOctave > 9)
+		{
+			throw new IllegalArgumentException("Octaves have to be in range 0 to 9, lowest not above highest");
+		}
+		if(!(tuning > 0.0))
+		{
+			throw new IllegalArgumentException("Frequency of A4 has to be positive");
+		}
+		if((letters & 0xFFF) == 0 || (letters & ~0xFFF) != 0)
+		{
+			throw new IllegalArgumentException("Mask of letters has to contain some of 12 letters");
+		}
+		if(highPassPitch < 0 || lowPassPitch < 0)
+		{
+			throw new IllegalArgumentException("Pitch of filter cutoff can't be negative");
+		}
+		this.lowestOctave = lowestOctave;
+		this.highestOctave = highestOctave;
+		this.tuning = tuning;
+		this.letters = letters;
+		this.highPassPitch = highPassPitch;
+		this.highPassResonance = highPassResonance;
+		this.lowPassPitch = lowPassPitch;
+		this.lowPassResonance = lowPassResonance;
+	}
+	
+	/**
+	 * Returns profile summing intensities of given octaves.
+	 * @param lowest	The lowest octave, from 0.
+	 * @param highest	The highest octave, up to 9.
+	 * @return			New profile.
+	 */
+	public DetectorProfile withOctaves(int lowest, int highest)
+	{
+		return new DetectorProfile(lowest, highest, tuning, letters, highPassPitch, highPassResonance, lowPassPitch, lowPassResonance);
+	}
+	
+	/**
+	 * Returns profile with given tuning. Frequencies of all
+	 * notes and filter cutoffs are scaled by the same factor.
+	 * @param a4	Frequency of A4 (Hz), for example 440.0 or 442.0.
+	 * @return		New profile.
+	 */
+	public DetectorProfile withTuning(double a4)
+	{
+		return new DetectorProfile(lowestOctave, highestOctave, a4, letters, highPassPitch, highPassResonance, lowPassPitch, lowPassResonance);
+	}
+	
+	/**
+	 * Returns profile detecting only given letters, others are never reported.
+	 * @param mask	Bit mask, bit i set if i-th letter of NoteLookup.getLetters() can be detected.
+	 * @return		New profile.
+	 */
+	public DetectorProfile withLetters(int mask)
+	{
+		return new DetectorProfile(lowestOctave, highestOctave, tuning, mask, highPassPitch, highPassResonance, lowPassPitch, lowPassResonance);
+	}
+	
+	/**
+	 * Returns profile with given high pass filter.
+	 * @param pitch			Pitch of cutoff frequency, semitones counted from C0.
+	 * @param resonance		Resonance amount.
+	 * @return				New profile.
+	 */
+	public DetectorProfile withHighPass(int pitch, double resonance)
+	{
+		return new DetectorProfile(lowestOctave, highestOctave, tuning, letters, pitch, resonance, lowPassPitch, lowPassResonance);
+	}
+	
+	/**
+	 * Returns profile with given low pass filter.
+	 * @param pitch			Pitch of cutoff frequency, semitones counted from C0.
+	 * @param resonance		Resonance amount.
+	 * @return				New profile.
+	 */
+	public DetectorProfile withLowPass(int pitch, double resonance)
+	{
+		return new DetectorProfile(lowestOctave, highestOctave, tuning, letters, highPassPitch, highPassResonance, pitch, resonance);
+	}
+	
+	/**
+	 * Compiles profile for frames of given length: FFT plan of size
+	 * N (the smallest power of 2 not less than frameLength), filters,
+	 * and ranges of bins of spectrum with resolution sampleRate/N.
+	 *
+	 * @param sampleRate	Sampling rate.
+	 * @param frameLength	Number of samples in a frame.
+	 * @return				Tables of profile.
+	 */
+	public CompiledProfile compile(int sampleRate, int frameLength)
+	{
+		final int N = IterativeFFT.getSize(frameLength);
+		return new CompiledProfile(this, sampleRate, (double) sampleRate / N, N/2 + 1, N);
+	}
+	
+	/**
+	 * Compiles profile for spectrum calculated elsewhere: filters
+	 * and ranges of bins, without FFT plan. Compiled profile is cached,
+	 * so it is compiled again only for another layout of spectrum.
+	 *
+	 * @param sampleRate	Sampling rate, used by filters.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param bins			Number of bins of spectrum.
+	 * @return				Tables of profile.
+	 */
+	public CompiledProfile compile(int sampleRate, double binWidth, int bins)
+	{
+		final long key = ((long) sampleRate << 32) | (bins & 0xFFFFFFFFL);
+		CompiledProfile profile = compiled.get(key);
+		if(profile == null || !profile.matches(sampleRate, binWidth, bins))
+		{
+			//Layouts are usually a few per profile, so cache is cleared instead of evicting old ones
+			if(compiled.size() >= maxCached)
+			{
+				compiled.clear();
+			}
+			profile = new CompiledProfile(this, sampleRate, binWidth, bins, 0);
+			compiled.put(key, profile);
+		}
+		return profile;
+	}
+	
+	/**
+	 * Returns frequency of note in tuning of this profile.
+	 * @param pitch		Number of semitones, counting from note C0.
+	 * @return			Frequency (Hz).
+	 */
+	public double getFrequency(int pitch)
+	{
+		//Factor is exactly 1.0 for tuning of NoteLookup, so default frequencies don't change
+		return NoteLookup.getFrequency(pitch) * (tuning / NoteLookup.getFrequency(referencePitch));
+	}
+	
+	/**
+	 * @return	The lowest octave which intensity is summed.
+	 */
+	public int getLowestOctave()
+	{
+		return lowestOctave;
+	}
+	
+	/**
+	 * @return	The highest octave which intensity is summed.
+	 */
+	public int getHighestOctave()
+	{
+		return highestOctave;
+	}
+	
+	/**
+	 * @return	Frequency of A4 (Hz).
+	 */
+	public double getTuning()
+	{
+		return tuning;
+	}
+	
+	/**
+	 * @return	Bit mask of letters that can be detected.
+	 */
+	public int getLetters()
+	{
+		return letters;
+	}
+	
+	/**
+	 * @return	Cutoff frequency of high pass filter (Hz).
+	 */
+	public double getHighPassFrequency()
+	{
+		return getFrequency(highPassPitch);
+	}
+	
+	/**
+	 * @return	Resonance amount of high pass filter.
+	 */
+	public double getHighPassResonance()
+	{
+		return highPassResonance;
+	}
+	
+	/**
+	 * @return	Cutoff frequency of low pass filter (Hz).
+	 */
+	public double getLowPassFrequency()
+	{
+		return getFrequency(lowPassPitch);
+	}
+	
+	/**
+	 * @return	Resonance amount of low pass filter.
+	 */
+	public double getLowPassResonance()
+	{
+		return lowPassResonance;
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * FixedPointNoteDetect.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import java.nio.ShortBuffer;
+
+import com.krzysztof.pajak.note.algorithms.FixedPointFFT;
+import com.krzysztof.pajak.note.algorithms.IterativeFFT;
+import com.krzysztof.pajak.note.processing.FixedPointBiquad;
+import com.krzysztof.pajak.note.tools.NoteLookup;
+
+/**
+ * FixedPointNoteDetect estimates notes played in 16 bit PCM samples
+ * with integer arithmetic only, without converting them to doubles.
+ *
+ * Pipeline is the same as in NoteDetect with power spectrum:
+ * silence check, high pass and low pass filters (FixedPointBiquad),
+ * normalizing, FFT (FixedPointFFT) and estimating notes from integer
+ * magnitudes. Normalizing is done by shifting by powers of 2, which
+ * doesn't change the estimate, because it depends only on ratios
+ * of intensities.
+ *
+ * Detector keeps workspace of FFT (two int arrays) between calls
+ * and grows it only for longer samples, so after the first call
+ * nothing is allocated, and memory used is 8 bytes per sample of
+ * transform, instead of copies of samples as doubles and Complex objects.
+ * One detector should be used by one thread.
+ *
+ * @author Krzysztof Pajk
+ */
+public class FixedPointNoteDetect
+{
+	//Average absolute value of silent samples, the same as in NoteDetect
+	final static long silenceTreshold = Math.round(NoteDetect.silenceTreshold * 32768);
+	
+	//Normalized samples are shifted so that their maximum is just below this bit
+	final static int normalizedBit = 28;
+	
+	private final int sampleRate;
+	private final FixedPointBiquad highPass;
+	private final FixedPointBiquad lowPass;
+	
+	//Workspace, grown for longer samples
+	private FixedPointFFT fft;
+	private int[] re = new int[0];
+	private int[] im = new int[0];
+	
+	/**
+	 * Creates detector of samples with given sampling rate.
+	 * @param sampleRate	Sampling rate.
+	 */
+	public FixedPointNoteDetect(int sampleRate)
+	{
+		this.sampleRate = sampleRate;
+		this.highPass = FixedPointBiquad.highPass((int) NoteLookup.getFrequency(3 * 12), 1.4, sampleRate);
+		this.lowPass = FixedPointBiquad.lowPass((int) NoteLookup.getFrequency(4 * 12), 0.5, sampleRate);
+	}
+	
+	/**
+	 * Estimates notes played in samples.
+	 *
+	 * @param samples		16 bit samples.
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @return Returns most probable notes played, null if sound is too quiet or noise.
+	 */
+	public String[] run(short[] samples, double tolerance)
+	{
+		final int mask = runMask(samples, tolerance, null);
+		return (mask == 0) ? null : NoteEstimate.maskToNotes(mask);
+	}
+	
+	/**
+	 * Estimates notes played in samples, returned as bit mask of letters.
+	 *
+	 * @param samples		16 bit samples.
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return Bit mask of letters, 0 if sound is too quiet, NoteEstimate.noiseMask if it is noise.
+	 */
+	public int runMask(short[] samples, double tolerance, double[] intensities)
+	{
+		final int length = samples.length;
+		prepare(length);
+		
+		long sum = 0;
+		int max = 0;
+		for(int i=0; i<length; i++)
+		{
+			int abs = Math.abs(samples[i]);
+			sum += abs;
+			max = Math.max(max, abs);
+		}
+		if(length == 0 || sum < silenceTreshold * length)
+		{
+			return 0;
+		}
+		
+		//Using headroom of quiet samples, with guard bits for filters
+		final int shift = FixedPointBiquad.guardBits + Math.max(0, Integer.numberOfLeadingZeros(max) - 17);
+		for(int i=0; i<length; i++)
+		{
+			re[i] = samples[i] << shift;
+		}
+		return estimate(length, tolerance, intensities);
+	}
+	
+	/**
+	 * Estimates notes played in samples between position
+	 * and limit of buffer, returned as bit mask of letters.
+	 * Position of buffer is not changed.
+	 *
+	 * @param samples		16 bit samples.
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return Bit mask of letters, 0 if sound is too quiet, NoteEstimate.noiseMask if it is noise.
+	 */
+	public int runMask(ShortBuffer samples, double tolerance, double[] intensities)
+	{
+		final int start = samples.position();
+		final int length = samples.remaining();
+		prepare(length);
+		
+		long sum = 0;
+		int max = 0;
+		for(int i=0; i<length; i++)
+		{
+			int abs = Math.abs(samples.get(start + i));
+			sum += abs;
+			max = Math.max(max, abs);
+		}
+		if(length == 0 || sum < silenceTreshold * length)
+		{
+			return 0;
+		}
+		
+		//Using headroom of quiet samples, with guard bits for filters
+		final int shift = FixedPointBiquad.guardBits + Math.max(0, Integer.numberOfLeadingZeros(max) - 17);
+		for(int i=0; i<length; i++)
+		{
+			re[i] = samples.get(start + i) << shift;
+		}
+		return estimate(length, tolerance, intensities);
+	}
+	
+	/**
+	 * Filters samples copied to workspace, normalizes them,
+	 * converts them to frequency domain and estimates notes.
+	 */
+	private int estimate(int length, double tolerance, double[] intensities)
+	{
+		final int N = fft.getSize();
+		highPass.run(re, length);
+		lowPass.run(re, length);
+		
+		//Normalizing, so that FFT starts with the largest values it can take
+		int max = 0;
+		for(int i=0; i<length; i++)
+		{
+			max = Math.max(max, Math.abs(re[i]));
+		}
+		if(max == 0)
+		{
+			return 0;
+		}
+		final int shift = Integer.numberOfLeadingZeros(max) - (31 - normalizedBit);
+		for(int i=0; i<length; i++)
+		{
+			re[i] = (shift >= 0) ? re[i] << shift : re[i] >> (-shift);
+		}
+		for(int i=length; i<N; i++)
+		{
+			re[i] = 0;
+		}
+		for(int i=0; i<N; i++)
+		{
+			im[i] = 0;
+		}
+		
+		fft.forward(re, im);
+		return NoteEstimate.getNotesMask(re, im, N, tolerance, (double) sampleRate / N, intensities);
+	}
+	
+	/**
+	 * Grows workspace for samples of given length.
+	 */
+	private void prepare(int length)
+	{
+		final int N = IterativeFFT.getSize(Math.max(2, length));
+		if(fft == null || fft.getSize() != N)
+		{
+			fft = new FixedPointFFT(N);
+		}
+		if(re.length < N)
+		{
+			re = new int[N];
+			im = new int[N];
+		}
+	}
+	
+	/**
+	 * @return	Sampling rate.
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+}
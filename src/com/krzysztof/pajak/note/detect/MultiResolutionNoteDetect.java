@@ -0,0 +1,292 @@
+/**
+ * MultiResolutionNoteDetect.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import java.util.Arrays;
+import com.krzysztof.pajak.note.algorithms.FFTPlan;
+import com.krzysztof.pajak.note.exceptions.InputSamplesException;
+import com.krzysztof.pajak.note.processing.Biquad;
+import com.krzysztof.pajak.note.processing.Decimator;
+import com.krzysztof.pajak.note.tools.NoteLookup;
+
+/**
+ * MultiResolutionNoteDetect estimates notes played in samples
+ * with frame length chosen separately for every octave.
+ *
+ * Distance between notes is proportional to their frequency, so an octave
+ * twice as high needs bins twice as wide, which means frames twice as short.
+ * Every octave from NoteEstimate.lowestOctave to highestOctave is read from
+ * its own band: samples decimated so that the band's top note is still below
+ * Nyquist frequency, and transformed with the same FFT size. Every lower
+ * octave is decimated twice as much as the next higher one, so its frame
+ * covers twice as long time with the same number of samples:
+ *
+ *  octave 5: the last N*D samples decimated by D,
+ *  octave 4: the last 2*N*D samples decimated by 2*D,
+ *  octave 2: the last 8*N*D samples decimated by 8*D.
+ *
+ * Frames of all bands end at the newest sample, so a note in octave 5 is
+ * fully visible after N*D samples, 8 times sooner than a note in octave 2.
+ * Silence is checked separately in every band's own frame, so a sound
+ * that has just started isn't averaged out by the long frame of octave 2;
+ * intensities of silent bands are zeros.
+ * Preprocessing is shared: frame of the lowest band is high pass filtered
+ * once, and decimated in a cascade, every band from the next higher one.
+ * The low pass filter of NoteDetect is left out, because it would damp
+ * the highest octave; every band is limited by its decimation filter.
+ * Intensities of octaves are merged into scores of letters by
+ * NoteEstimate.getNotesMask(double[][], ...). Bins of short frames are only
+ * a few times narrower than a semitone, so peaks are interpolated
+ * (PARABOLIC by default) instead of read from narrow range of bins.
+ *
+ * Samples can be passed all at once (the newest frame is used) or in hops,
+ * like in StreamingNoteDetect. One detector should be used by one thread.
+ *
+ * @author Krzysztof Pajk
+ */
+public class MultiResolutionNoteDetect
+{
+	//Number of bands, one per octave
+	final static int bands = NoteEstimate.octaves;
+	
+	private final int sampleRate;
+	private final int frameSize;
+	
+	//Decimation factor of the highest band, every lower band doubles it
+	private final int factor;
+	
+	//Shared preprocessing
+	private final Biquad highPass;
+	
+	//Plan, workspace and spectra (magnitudes) of every band, lowest octave first
+	private final FFTPlan plan;
+	private final double[] re;
+	private final double[] im;
+	private final double[][] spectra;
+	private final double[] binWidths;
+	
+	//Bands which frame is too quiet, checked for every frame
+	private final boolean[] silent;
+	
+	//The newest samples, as long as frame of the lowest band, for hops
+	private final double[] history;
+	private final double[] workspace;
+	
+	//Tolerance for estimating and method of interpolating peaks
+	private double tolerance = NoteEstimate.getDefaultTolerance();
+	private NoteEstimate.Interpolation interpolation = NoteEstimate.Interpolation.PARABOLIC;
+	
+	/**
+	 * Creates detector with given size of transform of every band.
+	 *
+	 * @param frameSize		Number of decimated samples in frame of every band, power of 2.
+	 * @param sampleRate	Sampling rate.
+	 */
+	public MultiResolutionNoteDetect(int frameSize, int sampleRate)
+	{
+		this.sampleRate = sampleRate;
+		this.frameSize = frameSize;
+		this.plan = new FFTPlan(frameSize);
+		
+		//Power of 2 keeping top of the highest octave below cutoff of decimation filter,
+		//with one octave of margin, so that it is also below its transition band
+		final double top = NoteLookup.getFrequency((NoteEstimate.highestOctave + 1) * 12);
+		this.factor = Math.max(1, Integer.highestOneBit(Decimator.maxFactor(sampleRate, top)) / 2);
+		this.highPass = Biquad.highPass((int) NoteLookup.getFrequency(3 * 12), 1.4, sampleRate);
+		
+		this.re = new double[frameSize];
+		this.im = new double[frameSize];
+		this.spectra = new double[bands][frameSize / 2];
+		this.binWidths = new double[bands];
+		this.silent = new boolean[bands];
+		for(int b=0; b<bands; b++)
+		{
+			binWidths[b] = (double) sampleRate / (frameSize * getFactor(b));
+		}
+		
+		this.history = new double[frameSize * getFactor(0)];
+		this.workspace = new double[history.length];
+	}
+	
+	/**
+	 * Estimates notes played in the newest frame of samples.
+	 *
+	 * @param samples		Samples in time domain, the newest at the end.
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @return				Most probable notes played, null if silent or noise.
+	 * @throws InputSamplesException
+	 */
+	public String[] run(double[] samples, double tolerance) throws InputSamplesException
+	{
+		final int mask = runMask(samples, tolerance, null);
+		return (mask == 0) ? null : NoteEstimate.maskToNotes(mask);
+	}
+	
+	/**
+	 * Estimates notes played in the newest frame of samples,
+	 * returned as bit mask of letters. Every octave is read from
+	 * its own frame ending with the last sample, earlier samples
+	 * than frame of the lowest band (getLatency(lowestOctave)) are ignored,
+	 * missing ones are taken as zeros.
+	 *
+	 * @param samples		Samples in time domain, the newest at the end.
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask, 0 if sound is too quiet, NoteEstimate.noiseMask if it is noise.
+	 * @throws InputSamplesException
+	 */
+	public int runMask(double[] samples, double tolerance, double[] intensities) throws InputSamplesException
+	{
+		if(samples == null || samples.length == 0)
+		{
+			throw new InputSamplesException("No samples given as an input");
+		}
+		
+		//Copying the newest frame of the lowest band, missing samples are zeros
+		final int length = Math.min(samples.length, workspace.length);
+		final int start = workspace.length - length;
+		for(int i=0; i<start; i++)
+		{
+			workspace[i] = 0.0;
+		}
+		System.arraycopy(samples, samples.length - length, workspace, start, length);
+		
+		//Checking silence in frame of every band, frames grow from the newest sample
+		double sum = 0.0;
+		int end = workspace.length;
+		boolean quiet = true;
+		for(int b=bands-1; b>=0; b--)
+		{
+			final int window = frameSize * getFactor(b);
+			for(int i=workspace.length-window; i<end; i++)
+			{
+				sum += Math.abs(workspace[i]);
+			}
+			end = workspace.length - window;
+			silent[b] = sum / Math.min(window, length) < NoteDetect.silenceTreshold;
+			quiet &= silent[b];
+		}
+		if(quiet)
+		{
+			return 0;
+		}
+		
+		highPass.run(workspace, workspace.length);
+		
+		//Cascade from the highest band down, every band decimated from the previous one
+		double[] band = Decimator.run(workspace, factor);
+		for(int b=bands-1; b>=0; b--)
+		{
+			if(b < bands-1)
+			{
+				band = Decimator.run(band, 2);
+			}
+			if(silent[b])
+			{
+				Arrays.fill(spectra[b], 0.0);
+			}
+			else
+			{
+				transform(band, spectra[b]);
+			}
+		}
+		
+		return NoteEstimate.getNotesMask(spectra, false, tolerance, binWidths, interpolation, intensities);
+	}
+	
+	/**
+	 * Passes new hop of a stream and returns notes played
+	 * in frames ending with this hop.
+	 *
+	 * @param hop	New samples in time domain.
+	 * @return		Most probable notes played, null if silent or noise.
+	 * @throws InputSamplesException
+	 */
+	public String[] process(double[] hop) throws InputSamplesException
+	{
+		//Shifting history and appending new samples
+		final int length = Math.min(hop.length, history.length);
+		System.arraycopy(history, length, history, 0, history.length - length);
+		System.arraycopy(hop, hop.length - length, history, history.length - length, length);
+		return run(history, tolerance);
+	}
+	
+	/**
+	 * Calculates magnitudes of the last frameSize samples of band.
+	 */
+	private void transform(double[] band, double[] spectrum)
+	{
+		final int offset = band.length - frameSize;
+		for(int i=0; i<frameSize; i++)
+		{
+			re[i] = band[offset + i];
+			im[i] = 0.0;
+		}
+		plan.forward(re, im);
+		for(int k=0; k<spectrum.length; k++)
+		{
+			spectrum[k] = Math.sqrt(re[k]*re[k] + im[k]*im[k]);
+		}
+	}
+	
+	/**
+	 * Decimation factor of band.
+	 * @param band	Index of band, 0 is the lowest octave.
+	 */
+	private int getFactor(int band)
+	{
+		return factor << (bands - 1 - band);
+	}
+	
+	/**
+	 * Returns time after which a note of given octave
+	 * is fully visible in its frame.
+	 *
+	 * @param octave	Octave, from NoteEstimate.lowestOctave to highestOctave.
+	 * @return			Length of frame of the octave's band, in seconds.
+	 */
+	public double getLatency(int octave)
+	{
+		if(octave < NoteEstimate.lowestOctave || octave > NoteEstimate.highestOctave)
+		{
+			throw new IllegalArgumentException("Octave out of range");
+		}
+		return (double) frameSize * getFactor(octave - NoteEstimate.lowestOctave) / sampleRate;
+	}
+	
+	/**
+	 * Changes tolerance used by process().
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 */
+	public void setTolerance(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+	
+	/**
+	 * Changes method of interpolating spectral peaks.
+	 * @param interpolation		Method of interpolating peaks.
+	 */
+	public void setInterpolation(NoteEstimate.Interpolation interpolation)
+	{
+		this.interpolation = interpolation;
+	}
+	
+	/**
+	 * @return	Sampling rate.
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+	
+	/**
+	 * @return	Number of decimated samples in frame of every band.
+	 */
+	public int getFrameSize()
+	{
+		return frameSize;
+	}
+}
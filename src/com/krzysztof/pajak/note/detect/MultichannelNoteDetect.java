@@ -0,0 +1,215 @@
+/**
+ * MultichannelNoteDetect.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import com.krzysztof.pajak.note.algorithms.FFTPlan;
+import com.krzysztof.pajak.note.algorithms.IterativeFFT;
+import com.krzysztof.pajak.note.exceptions.InputSamplesException;
+import com.krzysztof.pajak.note.processing.Biquad;
+import com.krzysztof.pajak.note.tools.NoteLookup;
+
+/**
+ * MultichannelNoteDetect estimates notes played in interleaved
+ * multichannel samples (stereo, multitrack), without splitting
+ * them into separate arrays and separate detectors.
+ *
+ * Every call chooses one of modes:
+ * - MIX mixes channels down to mono while they are copied to workspace
+ *   (in the same pass as silence check) and estimates notes once,
+ * - PER_CHANNEL estimates notes of every channel separately,
+ *   one after another, with the same FFT plan and workspace.
+ *
+ * Processing is the same as in NoteDetect with power spectrum:
+ * filters, FFT, squared magnitudes read in their own resolution.
+ * Amplitude normalizing is left out, because filters and FFT are linear
+ * and estimate depends only on ratios of intensities. Workspace is
+ * created again only when size of transform changes, so repeated calls
+ * with frames of the same length don't allocate memory.
+ * One detector should be used by one thread.
+ *
+ * @author Krzysztof Pajk
+ */
+public class MultichannelNoteDetect
+{
+	/**
+	 * Way of handling channels.
+	 */
+	public enum Mode
+	{
+		MIX,
+		PER_CHANNEL
+	}
+	
+	private final int channels;
+	private final int sampleRate;
+	private final Biquad highPass;
+	private final Biquad lowPass;
+	
+	//Plan and workspace shared by every channel
+	private FFTPlan plan;
+	private double[] re;
+	private double[] im;
+	
+	/**
+	 * Creates detector of interleaved samples.
+	 *
+	 * @param channels		Number of interleaved channels.
+	 * @param sampleRate	Sampling rate.
+	 */
+	public MultichannelNoteDetect(int channels, int sampleRate)
+	{
+		if(channels < 1)
+		{
+			throw new IllegalArgumentException("Number of channels has to be positive");
+		}
+		this.channels = channels;
+		this.sampleRate = sampleRate;
+		this.highPass = Biquad.highPass((int) NoteLookup.getFrequency(3 * 12), 1.4, sampleRate);
+		this.lowPass = Biquad.lowPass((int) NoteLookup.getFrequency(4 * 12), 0.5, sampleRate);
+	}
+	
+	/**
+	 * Estimates notes played in interleaved samples.
+	 *
+	 * @param samples		Interleaved samples, sample of channel c of frame i at i*channels + c.
+	 * @param mode			MIX or PER_CHANNEL.
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @return				Notes of mix (one array) or of every channel,
+	 * 						null arrays for silence and noise.
+	 * @throws InputSamplesException
+	 */
+	public String[][] run(double[] samples, Mode mode, double tolerance) throws InputSamplesException
+	{
+		int[] masks = runMask(samples, mode, tolerance, null);
+		String[][] notes = new String[masks.length][];
+		for(int c=0; c<masks.length; c++)
+		{
+			notes[c] = (masks[c] == 0) ? null : NoteEstimate.maskToNotes(masks[c]);
+		}
+		return notes;
+	}
+	
+	/**
+	 * Estimates notes played in interleaved samples,
+	 * returned as bit masks of letters.
+	 *
+	 * @param samples		Interleaved samples, sample of channel c of frame i at i*channels + c.
+	 * @param mode			MIX or PER_CHANNEL.
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @param masks			Array for masks (1 for MIX, channels for PER_CHANNEL), or null.
+	 * @return				Masks, 0 if sound is too quiet, NoteEstimate.noiseMask if it is noise.
+	 * @throws InputSamplesException
+	 */
+	public int[] runMask(double[] samples, Mode mode, double tolerance, int[] masks) throws InputSamplesException
+	{
+		if(samples == null || samples.length < 2 * channels)
+		{
+			throw new InputSamplesException("No samples given as an input");
+		}
+		if(samples.length % channels != 0)
+		{
+			throw new InputSamplesException("Number of samples is not a multiple of number of channels");
+		}
+		
+		final int count = (mode == Mode.MIX) ? 1 : channels;
+		if(masks == null)
+		{
+			masks = new int[count];
+		}
+		else if(masks.length < count)
+		{
+			throw new IllegalArgumentException("Array of masks is too small");
+		}
+		
+		final int length = samples.length / channels;
+		prepare(length);
+		for(int c=0; c<count; c++)
+		{
+			//Copying channel (or mix of channels) to workspace, summing amplitude
+			double sum = 0.0;
+			if(mode == Mode.MIX)
+			{
+				final double scale = 1.0 / channels;
+				for(int i=0, j=0; i<length; i++)
+				{
+					double mix = 0.0;
+					for(int k=0; k<channels; k++, j++)
+					{
+						mix += samples[j];
+					}
+					re[i] = mix * scale;
+					sum += Math.abs(re[i]);
+				}
+			}
+			else
+			{
+				for(int i=0, j=c; i<length; i++, j+=channels)
+				{
+					re[i] = samples[j];
+					sum += Math.abs(re[i]);
+				}
+			}
+			
+			masks[c] = (sum / length < NoteDetect.silenceTreshold) ? 0 : estimate(length, tolerance);
+		}
+		return masks;
+	}
+	
+	/**
+	 * Filters samples copied to workspace, converts
+	 * them to frequency domain and estimates notes.
+	 */
+	private int estimate(int length, double tolerance)
+	{
+		final int N = plan.getSize();
+		highPass.run(re, length);
+		lowPass.run(re, length);
+		for(int i=length; i<N; i++)
+		{
+			re[i] = 0.0;
+		}
+		for(int i=0; i<N; i++)
+		{
+			im[i] = 0.0;
+		}
+		
+		plan.forward(re, im);
+		for(int k=0; k<N; k++)
+		{
+			re[k] = re[k]*re[k] + im[k]*im[k];
+		}
+		return NoteEstimate.getNotesMaskFromPower(re, tolerance, (double) sampleRate / N, null);
+	}
+	
+	/**
+	 * Creates plan and workspace, unless they are already created for this size.
+	 */
+	private void prepare(int length)
+	{
+		final int N = IterativeFFT.getSize(length);
+		if(plan == null || plan.getSize() != N)
+		{
+			plan = new FFTPlan(N);
+			re = new double[N];
+			im = new double[N];
+		}
+	}
+	
+	/**
+	 * @return	Number of interleaved channels.
+	 */
+	public int getChannels()
+	{
+		return channels;
+	}
+	
+	/**
+	 * @return	Sampling rate.
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+}
@@ -4,6 +4,9 @@
  */
 
 package com.krzysztof.pajak.note.detect;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+
 import com.krzysztof.pajak.note.algorithms.AbstractAlgorithm;
 import com.krzysztof.pajak.note.algorithms.IterativeFFT;
 import com.krzysztof.pajak.note.algorithms.RecursiveFFT;
@@ -11,11 +14,15 @@ import com.krzysztof.pajak.note.exceptions.InputSamplesException;
 import com.krzysztof.pajak.note.exceptions.InvalidAlgorithmException;
 import com.krzysztof.pajak.note.exceptions.InvalidNoteException;
 import com.krzysztof.pajak.note.processing.AmplitudeNormalizer;
+import com.krzysztof.pajak.note.processing.Decimator;
 import com.krzysztof.pajak.note.processing.HighPassFilter;
 import com.krzysztof.pajak.note.processing.LowPassFilter;
 import com.krzysztof.pajak.note.tools.ArrayMethods;
+import com.krzysztof.pajak.note.tools.BufferArena;
 import com.krzysztof.pajak.note.tools.Complex;
 import com.krzysztof.pajak.note.tools.NoteLookup;
+import com.krzysztof.pajak.note.tools.OffHeapBuffer;
+import com.krzysztof.pajak.note.tools.SpectrumStore;
 
 /**
  * NoteDetect provides main library interface.
@@ -42,12 +49,38 @@ public class NoteDetect
 	double[] samples;
 	double[] result;
 	
+	//Spectrum in its own resolution (sampleRate/decimation/N), before stretching
+	double[] spectrum;
+	
+	//Difference of frequency between adjacent bins of result (Hz)
+	double binWidth = 1.0;
+	
+	//Sampling rate is reduced by this factor before FFT
+	int decimation = 1;
+	
+	//If true, result contains squared magnitudes in their own resolution
+	boolean power = false;
+	
+	//Interpolation of spectral peaks and weight of harmonic reinforcement
+	NoteEstimate.Interpolation interpolation = NoteEstimate.Interpolation.NONE;
+	double harmonicWeight = 0.0;
+	
+	//Profile of instrument and its tables compiled for current spectrum
+	DetectorProfile profile = DetectorProfile.DEFAULT;
+	private CompiledProfile compiled = null;
+	
 	//Algorithm used to convert samples to frequency domain.
 	AbstractAlgorithm algorithm = new IterativeFFT();
 	
-	//If average amplitude is lower than
-	//this threshold then run method return null
-	final static double silenceTreshold = 0.005;
+	/**
+	 * If average amplitude is lower than
+	 * this threshold then run method return null.
+	 */
+	public final static double silenceTreshold = 0.005;
+	
+	//Streaming detector disables this check,
+	//because silence is already handled by its gate
+	boolean checkSilence = true;
 	
 	/**
 	 * Class constructor specifying input samples.
@@ -128,6 +161,76 @@ public class NoteDetect
 		this.result = null;
 	}
 	
+	/**
+	 * Changes factor by which sampling rate is reduced
+	 * after filtering and before converting samples to frequency domain.
+	 * 
+	 * FFT of decimated samples is factor times smaller and gives
+	 * the same frequency resolution. Reduced sampling rate should stay
+	 * above twice the frequency of the highest note estimated (B5),
+	 * see Decimator.maxFactor().
+	 * 
+	 * @param factor	Decimation factor, default 1 (no decimation).
+	 */
+	public void setDecimation(int factor)
+	{
+		if(factor < 1)
+		{
+			throw new IllegalArgumentException("Decimation factor has to be positive");
+		}
+		this.decimation = factor;
+		this.result = null;
+	}
+	
+	/**
+	 * Changes representation of spectrum used for estimating.
+	 * 
+	 * In power mode result contains squared magnitudes (re^2 + im^2),
+	 * so no square root is calculated for most of the bins, and spectrum
+	 * is read with its own resolution, without stretching.
+	 * Estimated notes may differ slightly from the default mode,
+	 * which interpolates magnitudes to 1 Hz bins.
+	 * 
+	 * @param power		True for power spectrum, default false.
+	 */
+	public void setPowerSpectrum(boolean power)
+	{
+		this.power = power;
+		this.result = null;
+	}
+	
+	/**
+	 * Changes estimating of peaks between bins of spectrum.
+	 * 
+	 * With interpolation, peaks are assigned to the nearest notes
+	 * using their interpolated frequency, so adjacent semitones
+	 * are told apart with much shorter samples. Spectrum is then read
+	 * with its own resolution, without stretching.
+	 * 
+	 * @param interpolation		Method of interpolation, default NONE.
+	 * @param harmonicWeight	Weight of reinforcement of letters present in consecutive octaves, default 0.0.
+	 */
+	public void setInterpolation(NoteEstimate.Interpolation interpolation, double harmonicWeight)
+	{
+		this.interpolation = interpolation;
+		this.harmonicWeight = harmonicWeight;
+		this.result = null;
+	}
+	
+	/**
+	 * Changes profile of instrument: octaves, tuning, letters and filters.
+	 * Profile is compiled once for resolution of spectrum, so detector
+	 * reused for many frames of the same length doesn't compile it again.
+	 * 
+	 * @param profile	Profile, default DetectorProfile.DEFAULT.
+	 */
+	public void setProfile(DetectorProfile profile)
+	{
+		this.profile = profile;
+		this.compiled = null;
+		this.result = null;
+	}
+	
 	/** 
 	 * Changes algorithm that converts data from time domain
 	 * to frequency domain (FFT or similar algorithms).
@@ -156,6 +259,85 @@ public class NoteDetect
 	 * @throws InvalidNoteException
 	 */
 	public String[] run(double tolerance) throws InvalidAlgorithmException, InputSamplesException, InvalidNoteException
+	{
+		if(!prepare())
+		{
+			return null;
+		}
+		
+		//Estimating notes played using previously calculated DFTs
+		return NoteEstimate.maskToNotes(estimate(tolerance, null));
+	}
+	
+	/**
+	 * Estimates notes like run(), but returns them as bit mask
+	 * of letters, bit i is set if i-th letter of NoteLookup.getLetters()
+	 * is played. Once spectrum is calculated, repeated calls
+	 * don't allocate any memory.
+	 * 
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return Bit mask of letters, 0 if sound is too quiet, NoteEstimate.noiseMask if it is noise.
+	 * @throws InvalidAlgorithmException
+	 * @throws InputSamplesException
+	 */
+	public int runMask(double tolerance, double[] intensities) throws InvalidAlgorithmException, InputSamplesException
+	{
+		if(!prepare())
+		{
+			return 0;
+		}
+		return estimate(tolerance, intensities);
+	}
+	
+	/**
+	 * Estimates notes in calculated spectrum with chosen options,
+	 * compiling profile if resolution of spectrum has changed.
+	 */
+	private int estimate(double tolerance, double[] intensities)
+	{
+		if(compiled == null || !compiled.matches(sampleRate, binWidth, result.length))
+		{
+			compiled = profile.compile(sampleRate, binWidth, result.length);
+		}
+		return compiled.getNotesMask(result, power, tolerance, interpolation, harmonicWeight, intensities);
+	}
+	
+	/**
+	 * Converts samples to frequency domain and saves spectrum
+	 * in spectrum store, so that notes can be estimated later
+	 * with NoteEstimate, without repeating filtering and FFT.
+	 * 
+	 * Only the lower half of spectrum (N/2+1 bins) is saved, in its own
+	 * resolution, even if run() reads stretched spectrum. Notes estimated
+	 * from store are the same as of run() in power mode or with decimation
+	 * (without interpolation), when run() reads spectrum in its own resolution too.
+	 * 
+	 * @param writer	Writer of spectrum store.
+	 * @param id		Unique ID of clip.
+	 * @throws InvalidAlgorithmException
+	 * @throws InputSamplesException
+	 * @throws IOException
+	 */
+	public void store(SpectrumStore.Writer writer, String id) throws InvalidAlgorithmException, InputSamplesException, IOException
+	{
+		if(!prepare())
+		{
+			writer.write(id, null, binWidth, 0);
+			return;
+		}
+		final double width = (double) this.sampleRate / decimation / spectrum.length;
+		writer.write(id, spectrum, spectrum.length/2 + 1, width, power ? SpectrumStore.POWER : 0);
+	}
+	
+	/**
+	 * Converts samples to frequency domain, unless it is already done.
+	 * 
+	 * @return	False if sound is too quiet.
+	 * @throws InvalidAlgorithmException
+	 * @throws InputSamplesException
+	 */
+	private boolean prepare() throws InvalidAlgorithmException, InputSamplesException
 	{
 		//Handling exceptions
 		if(algorithm == null || algorithm.getClass().isAssignableFrom(AbstractAlgorithm.class))
@@ -173,27 +355,45 @@ public class NoteDetect
 		if(result == null)
 		{			
 			//If sound is too quiet then return null
-			if(averageAmplitude(samples) < silenceTreshold)
+			if(checkSilence && averageAmplitude(samples) < silenceTreshold)
 			{
-				return null;				
+				return false;
 			}
 			
-			//Frequency filtering and sound normalizing
-			int highCut = (int) NoteLookup.getFrequency("C3");
-			int lowCut = (int) NoteLookup.getFrequency("C4");
-			samples = AmplitudeNormalizer.run(samples);
-			samples = HighPassFilter.run(samples, highCut, 1.4, this.sampleRate);
-			samples = LowPassFilter.run(samples, lowCut, 0.5, this.sampleRate);
+			//Filters of profile depend only on sampling rate, so profile compiled
+			//for previous spectrum is reused, otherwise it is taken from cache of profile
+			if(compiled == null || compiled.getSampleRate() != this.sampleRate)
+			{
+				compiled = profile.compile(this.sampleRate, 1.0, 0);
+			}
+			
+			//Frequency filtering and sound normalizing, on a copy like separate filters did
+			samples = AmplitudeNormalizer.run(samples).clone();
+			compiled.filter(samples, samples.length);
+			if(decimation > 1)
+			{
+				samples = Decimator.run(samples, decimation);
+			}
 			samples = AmplitudeNormalizer.run(samples);
 			
-			//Calculating DFTs and stretching array
+			//Calculating DFTs
 			Complex[] resultCpx = algorithm.run(samples);
-			result = ArrayMethods.complexToDouble(resultCpx);
-			result = ArrayMethods.stretchArray(result, this.sampleRate);
+			result = power ? ArrayMethods.complexToPower(resultCpx) : ArrayMethods.complexToDouble(resultCpx);
+			spectrum = result;
+			
+			//Decimated, power or interpolated spectrum is read with its own resolution,
+			//otherwise array is stretched so that index is frequency in Hz
+			if(decimation > 1 || power || interpolation != NoteEstimate.Interpolation.NONE)
+			{
+				binWidth = (double) this.sampleRate / decimation / result.length;
+			}
+			else
+			{
+				result = ArrayMethods.stretchArray(result, this.sampleRate);
+				binWidth = 1.0;
+			}
 		}
-		
-		//Estimating notes played using previously calculated DFTs
-		return NoteEstimate.getNotes(result);
+		return true;
 	}
 	
 	/**
@@ -211,6 +411,64 @@ public class NoteDetect
 		return this.run(NoteEstimate.getDefaultTolerance());
 	}
 	
+	/**
+	 * Estimates notes played in samples stored outside of the heap.
+	 * 
+	 * Every intermediate buffer (filtered samples, spectrum) is allocated
+	 * from given arena, so processing of long samples doesn't create large
+	 * arrays on the heap. Buffers stay valid until arena is reset or closed.
+	 * Input samples are not modified.
+	 * 
+	 * Spectrum is read with its own resolution (sampleRate/N),
+	 * without stretching, and decimation is not used.
+	 * 
+	 * @param samples		Input sound samples, in time domain.
+	 * @param sampleRate	Sampling rate.
+	 * @param tolerance		Tolerance for estimating, 1.0 is most strict, 0.0 least.
+	 * @param arena			Arena allocating intermediate buffers.
+	 * @return Returns most probable notes played on input samples data.
+	 * @throws InputSamplesException
+	 */
+	public static String[] run(OffHeapBuffer samples, int sampleRate, double tolerance, BufferArena arena) throws InputSamplesException
+	{
+		if(samples == null || samples.length() < 2)
+		{
+			throw new InputSamplesException("No samples given as an input");
+		}
+		
+		//If sound is too quiet then return null
+		DoubleBuffer input = samples.buffer();
+		double sum = 0.0;
+		for(int i=0; i<samples.length(); i++)
+		{
+			sum += Math.abs(input.get(i));
+		}
+		if(sum / samples.length() < silenceTreshold)
+		{
+			return null;
+		}
+		
+		//Frequency filtering and sound normalizing
+		//Filters are linear, so normalizing once after them is enough
+		double highCut = NoteLookup.getFrequency(3 * 12);
+		double lowCut = NoteLookup.getFrequency(4 * 12);
+		OffHeapBuffer highPassed = arena.allocate(samples.length());
+		OffHeapBuffer filtered = arena.allocate(samples.length());
+		HighPassFilter.run(samples, highPassed, (int) highCut, 1.4, sampleRate);
+		LowPassFilter.run(highPassed, filtered, 0.5, (int) lowCut, sampleRate);
+		AmplitudeNormalizer.run(filtered);
+		
+		//Calculating DFTs
+		final int N = IterativeFFT.getSize(samples.length());
+		OffHeapBuffer spectrum = arena.allocate(2*N);
+		OffHeapBuffer power = arena.allocate(N);
+		new IterativeFFT().run(filtered, spectrum);
+		ArrayMethods.complexToPower(spectrum, power);
+		
+		//Estimating notes played
+		return NoteEstimate.getNotesFromPower(power, tolerance, (double) sampleRate / N);
+	}
+	
 	/**
 	 * Calculates average amplitude.
 	 * @param samples	Samples in time domain.
@@ -4,10 +4,13 @@
  */
 
 package com.krzysztof.pajak.note.detect;
-import java.util.ArrayList;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 
 import com.krzysztof.pajak.note.exceptions.InvalidNoteException;
 import com.krzysztof.pajak.note.tools.NoteLookup;
+import com.krzysztof.pajak.note.tools.OffHeapBuffer;
+import com.krzysztof.pajak.note.tools.SpectrumStore;
 
 /**
  * NoteEstimate class uses (relatively) simple methods to
@@ -20,6 +23,71 @@ public class NoteEstimate
 {
 	final static double defaultTolerance = 0.5;
 	
+	//Octaves which intensities are summed for every letter
+	final static int lowestOctave = 2;
+	final static int highestOctave = 5;
+	
+	//Factor narrowing searched range around note's frequency
+	final static double rangeFactor = 0.956;
+	
+	//Ratio of note's frequency to bounds of searched range
+	final static double rangeDiff = NoteLookup.getDiff()*rangeFactor;
+	
+	//If there is more notes detected it means that the sound is probably noise
+	final static int maxNotes = 5;
+	
+	/**
+	 * Mask returned by getNotesMask methods when sound is probably noise.
+	 */
+	public final static int noiseMask = -1;
+	
+	/**
+	 * Method of finding position and height of spectral peaks between bins.
+	 * 
+	 * NONE takes the strongest bin in narrow range around every note,
+	 * so adjacent notes can be told apart only if bins are much narrower
+	 * than a semitone (long frames). Other methods fit a curve to the
+	 * strongest bin and its neighbours, and peak is assigned to the note
+	 * nearest to its interpolated frequency, so much shorter frames
+	 * give the same accuracy:
+	 * - PARABOLIC fits parabola to magnitudes,
+	 * - GAUSSIAN fits parabola to logarithms of magnitudes, which is exact
+	 *   for Gaussian window and close for other smooth windows.
+	 */
+	public enum Interpolation
+	{
+		NONE,
+		PARABOLIC,
+		GAUSSIAN
+	}
+	
+	//Half of semitone, bounds of interpolated note's range
+	final static double halfSemitone = Math.sqrt(NoteLookup.getDiff());
+	
+	//Frequencies of summed notes, index is letter*octaves + (octave - lowestOctave)
+	final static int octaves = highestOctave - lowestOctave + 1;
+	final static double[] pitches = new double[12 * octaves];
+	static
+	{
+		for(int letter=0; letter<12; letter++)
+		{
+			for(int octave=lowestOctave; octave<=highestOctave; octave++)
+			{
+				pitches[letter*octaves + octave - lowestOctave] = NoteLookup.getFrequency(octave*12 + letter);
+			}
+		}
+	}
+	
+	//Intensities used when caller doesn't supply array
+	final static ThreadLocal<double[]> scratch = new ThreadLocal<double[]>()
+	{
+		@Override
+		protected double[] initialValue()
+		{
+			return new double[12];
+		}
+	};
+	
 	/**
 	 * Detecting pitch of the most probable notes played
 	 * 
@@ -42,15 +110,428 @@ public class NoteEstimate
 	 */
 	public static String[] getNotes(double[] frequencies, double tolerance) throws InvalidNoteException
 	{
-		String[] letters = NoteLookup.getLetters();
-		double[] values = new double[letters.length];
+		return getNotes(frequencies, tolerance, 1.0);
+	}
+	
+	/**
+	 * Detecting pitch of the most probable notes played
+	 * in spectrum with any resolution.
+	 * 
+	 * Bin i of frequencies array contains frequency i*binWidth (Hz).
+	 * For spectrum calculated by FFT of N samples, binWidth is sampleRate/N.
+	 * 
+	 * @param frequencies	Data in frequency domain.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @return				Array of notes
+	 * @throws InvalidNoteException 
+	 */
+	public static String[] getNotes(double[] frequencies, double tolerance, double binWidth) throws InvalidNoteException
+	{
+		return maskToNotes(getNotesMask(frequencies, tolerance, binWidth, null));
+	}
+	
+	/**
+	 * Detecting pitch classes of the most probable notes played,
+	 * returned as a bit mask. Bit i is set if i-th letter
+	 * of NoteLookup.getLetters() is played (bit 0 is C, bit 11 is B).
+	 * 
+	 * This method doesn't allocate any memory, so it is suited
+	 * for processing many frames. Matching detected notes
+	 * can be done with bit operations.
+	 * 
+	 * @param frequencies	Data in frequency domain.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask of letters, noiseMask if sound is probably noise.
+	 */
+	public static int getNotesMask(double[] frequencies, double tolerance, double binWidth, double[] intensities)
+	{
+		double[] values = (intensities == null) ? scratch.get() : intensities;
+		
+		//Summing intensity of certain frequencies
+		for(int i=0; i<12; i++)
+		{
+			values[i] = getNotesIntensity(frequencies, i, binWidth, false, Interpolation.NONE, 0.0);
+		}
+		
+		return selectNotes(values, tolerance);
+	}
+	
+	/**
+	 * Detecting pitch classes of the most probable notes played
+	 * in power spectrum (squared magnitudes, see ArrayMethods.complexToPower()),
+	 * returned as a bit mask.
+	 * 
+	 * Bins are compared without calculating square roots, only the
+	 * strongest bin of every note is converted to magnitude, so result
+	 * is the same as of getNotesMask() for spectrum of magnitudes.
+	 * 
+	 * @param power			Squared magnitudes in frequency domain.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask of letters, noiseMask if sound is probably noise.
+	 */
+	public static int getNotesMaskFromPower(double[] power, double tolerance, double binWidth, double[] intensities)
+	{
+		double[] values = (intensities == null) ? scratch.get() : intensities;
+		
+		//Summing intensity of certain frequencies
+		for(int i=0; i<12; i++)
+		{
+			values[i] = getNotesIntensity(power, i, binWidth, true, Interpolation.NONE, 0.0);
+		}
+		
+		return selectNotes(values, tolerance);
+	}
+	
+	/**
+	 * Detecting pitch classes of the most probable notes played,
+	 * with sub-bin interpolation of spectral peaks and optional
+	 * harmonic reinforcement, returned as a bit mask.
+	 * 
+	 * With harmonic reinforcement, every pair of consecutive octaves
+	 * of a letter adds harmonicWeight times the weaker of them, so letters
+	 * with energy in octave and its second harmonic are preferred over
+	 * single spurious peaks.
+	 * 
+	 * @param spectrum		Magnitudes (or squared magnitudes) in frequency domain.
+	 * @param power			If true, spectrum contains squared magnitudes.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param interpolation	Method of interpolating peaks.
+	 * @param harmonicWeight	Weight of harmonic reinforcement, 0.0 to disable.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask of letters, noiseMask if sound is probably noise.
+	 */
+	public static int getNotesMask(double[] spectrum, boolean power, double tolerance, double binWidth,
+			Interpolation interpolation, double harmonicWeight, double[] intensities)
+	{
+		double[] values = (intensities == null) ? scratch.get() : intensities;
 		
 		//Summing intensity of certain frequencies
-		for(int i=0; i<letters.length; i++)
+		for(int i=0; i<12; i++)
+		{
+			values[i] = getNotesIntensity(spectrum, i, binWidth, power, interpolation, harmonicWeight);
+		}
+		
+		return selectNotes(values, tolerance);
+	}
+	
+	/**
+	 * Detecting pitch classes of the most probable notes played
+	 * in spectra of different resolution, one for every octave
+	 * (see MultiResolutionNoteDetect), returned as a bit mask.
+	 * 
+	 * Intensity of note in octave lowestOctave + i is read from spectra[i]
+	 * with bin width binWidths[i], and intensities of octaves are summed
+	 * for every letter, the same as from one spectrum in getNotesMask().
+	 * Spectra of short frames have bins not much narrower than a semitone,
+	 * so peaks should be interpolated.
+	 * 
+	 * @param spectra		Magnitudes (or squared magnitudes) in frequency domain, one array per octave.
+	 * @param power			If true, spectra contain squared magnitudes.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param binWidths		Difference of frequency between adjacent bins of every spectrum (Hz).
+	 * @param interpolation	Method of interpolating peaks.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask of letters, noiseMask if sound is probably noise.
+	 */
+	public static int getNotesMask(double[][] spectra, boolean power, double tolerance, double[] binWidths,
+			Interpolation interpolation, double[] intensities)
+	{
+		if(spectra.length < octaves || binWidths.length < octaves)
 		{
-			values[i] = getNotesIntensity(frequencies, letters[i]);
+			throw new IllegalArgumentException("One spectrum is required for every octave from " + lowestOctave + " to " + highestOctave);
 		}
+		double[] values = (intensities == null) ? scratch.get() : intensities;
+		
+		//Summing intensity of certain frequencies, every octave from its own spectrum
+		for(int i=0; i<12; i++)
+		{
+			values[i] = 0.0;
+			for(int octave=0; octave<octaves; octave++)
+			{
+				double max = getNoteMax(spectra[octave], pitches[i*octaves + octave], binWidths[octave], interpolation);
+				values[i] += power ? Math.sqrt(max) : max;
+			}
+		}
+		
+		return selectNotes(values, tolerance);
+	}
+	
+	/**
+	 * Detecting pitch classes of the most probable notes played
+	 * in fixed point spectrum (see FixedPointFFT), returned as a bit mask.
+	 *
+	 * Bins are compared by squared magnitudes calculated in long,
+	 * only the strongest bin of every note is converted to integer
+	 * magnitude, and intensities are sums of integer magnitudes.
+	 * Common exponent of spectrum doesn't change the result.
+	 *
+	 * @param re			Real parts of spectrum, smaller than 2^31 in absolute value.
+	 * @param im			Imaginary parts of spectrum.
+	 * @param bins			Number of bins read from arrays.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask of letters, noiseMask if sound is probably noise.
+	 */
+	public static int getNotesMask(int[] re, int[] im, int bins, double tolerance, double binWidth, double[] intensities)
+	{
+		double[] values = (intensities == null) ? scratch.get() : intensities;
+
+		//Summing intensity of certain frequencies
+		for(int i=0; i<12; i++)
+		{
+			long sum = 0;
+			for(int octave=0; octave<octaves; octave++)
+			{
+				double pitch = pitches[i*octaves + octave];
+				int start = startBin(pitch, binWidth);
+				int end = endBin(pitch, binWidth, bins);
 
+				long max = 0;
+				for(int j=start; j<end; j++)
+				{
+					long r = re[j];
+					long m = im[j];
+					max = Math.max(max, r*r + m*m);
+				}
+				sum += (long) Math.sqrt((double) max);
+			}
+			values[i] = sum;
+		}
+
+		return selectNotes(values, tolerance);
+	}
+
+	/**
+	 * Detecting pitch of the most probable notes played
+	 * in spectrum stored in buffer outside of the heap.
+	 * 
+	 * @param frequencies	Data in frequency domain.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @return				Array of notes
+	 */
+	public static String[] getNotes(OffHeapBuffer frequencies, double tolerance, double binWidth)
+	{
+		return maskToNotes(getNotesMask(frequencies, tolerance, binWidth, false));
+	}
+	
+	/**
+	 * Detecting pitch of the most probable notes played
+	 * in power spectrum (squared magnitudes) stored in buffer outside of the heap.
+	 * 
+	 * @param power			Squared magnitudes in frequency domain.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @return				Array of notes
+	 */
+	public static String[] getNotesFromPower(OffHeapBuffer power, double tolerance, double binWidth)
+	{
+		return maskToNotes(getNotesMask(power, tolerance, binWidth, true));
+	}
+	
+	/**
+	 * Detecting pitch classes of the most probable notes played
+	 * in spectrum stored in buffer outside of the heap.
+	 * 
+	 * @param frequencies	Data in frequency domain.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param power			If true, buffer contains squared magnitudes.
+	 * @return				Bit mask of letters, noiseMask if sound is probably noise.
+	 */
+	private static int getNotesMask(OffHeapBuffer frequencies, double tolerance, double binWidth, boolean power)
+	{
+		double[] values = scratch.get();
+		DoubleBuffer buffer = frequencies.buffer();
+		
+		//Summing intensity of certain frequencies
+		for(int i=0; i<12; i++)
+		{
+			values[i] = 0.0;
+			for(int octave=0; octave<octaves; octave++)
+			{
+				double pitch = pitches[i*octaves + octave];
+				int start = startBin(pitch, binWidth);
+				int end = endBin(pitch, binWidth, frequencies.length());
+				
+				double max = 0.0;
+				for(int j=start; j<end; j++)
+				{
+					max = Math.max(max, buffer.get(j));
+				}
+				values[i] += power ? Math.sqrt(max) : max;
+			}
+		}
+		
+		return selectNotes(values, tolerance);
+	}
+	
+	/**
+	 * Detecting pitch of the most probable notes played
+	 * in spectrum of clip saved in spectrum store.
+	 * 
+	 * @param store			Spectrum store opened for reading.
+	 * @param clip			Index of clip in store.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @return				Array of notes, null if clip is silent or noise.
+	 */
+	public static String[] getNotes(SpectrumStore store, int clip, double tolerance)
+	{
+		if((store.getFlags(clip) & SpectrumStore.SILENT) != 0)
+		{
+			return null;
+		}
+		return maskToNotes(getNotesMask(store, clip, tolerance, null));
+	}
+	
+	/**
+	 * Detecting pitch classes of the most probable notes played
+	 * in spectrum of clip saved in spectrum store, returned as a bit mask.
+	 * Spectrum is read directly from mapped file, without copying.
+	 * 
+	 * @param store			Spectrum store opened for reading.
+	 * @param clip			Index of clip in store.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @param intensities	Array of 12 values for summed intensity of every letter, or null.
+	 * @return				Bit mask of letters, 0 if clip is silent, noiseMask if it is noise.
+	 */
+	public static int getNotesMask(SpectrumStore store, int clip, double tolerance, double[] intensities)
+	{
+		final int flags = store.getFlags(clip);
+		if((flags & SpectrumStore.SILENT) != 0)
+		{
+			return 0;
+		}
+		
+		double[] values = (intensities == null) ? scratch.get() : intensities;
+		FloatBuffer buffer = store.getSpectrum(clip);
+		final double binWidth = store.getBinWidth(clip);
+		final boolean power = (flags & SpectrumStore.POWER) != 0;
+		
+		//Summing intensity of certain frequencies
+		for(int i=0; i<12; i++)
+		{
+			values[i] = 0.0;
+			for(int octave=0; octave<octaves; octave++)
+			{
+				double pitch = pitches[i*octaves + octave];
+				int start = startBin(pitch, binWidth);
+				int end = endBin(pitch, binWidth, buffer.limit());
+				
+				double max = 0.0;
+				for(int j=start; j<end; j++)
+				{
+					max = Math.max(max, buffer.get(j));
+				}
+				values[i] += power ? Math.sqrt(max) : max;
+			}
+		}
+		
+		return selectNotes(values, tolerance);
+	}
+	
+	/**
+	 * Detecting pitch of the most probable notes played
+	 * in spectrum with one bin per semitone, like constant Q transform.
+	 * Every note is read directly from its own bin.
+	 * 
+	 * @param semitones		Intensity of consecutive semitones.
+	 * @param lowestPitch	Pitch of the first bin, semitones counted from C0.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @return				Array of notes
+	 */
+	public static String[] getNotesFromSemitones(double[] semitones, int lowestPitch, double tolerance)
+	{
+		double[] values = scratch.get();
+		for(int i=0; i<12; i++)
+		{
+			values[i] = 0.0;
+		}
+		
+		//Summing intensity of every letter in octaves taken into account
+		for(int pitch=lowestOctave*12; pitch<(highestOctave+1)*12; pitch++)
+		{
+			int bin = pitch - lowestPitch;
+			if(bin >= 0 && bin < semitones.length)
+			{
+				values[pitch % 12] += semitones[bin];
+			}
+		}
+		
+		return maskToNotes(selectNotes(values, tolerance));
+	}
+	
+	/**
+	 * Converts bit mask of letters to array of letters.
+	 * 
+	 * @param mask	Bit mask, bit i set if i-th letter of NoteLookup.getLetters() is played.
+	 * @return		Array of notes, null for noiseMask.
+	 */
+	public static String[] maskToNotes(int mask)
+	{
+		if(mask == noiseMask)
+		{
+			return null;
+		}
+		
+		String[] letters = NoteLookup.getLetters();
+		String[] array = new String[Integer.bitCount(mask & 0xFFF)];
+		int n = 0;
+		for(int i=0; i<12; i++)
+		{
+			if((mask & (1 << i)) != 0)
+			{
+				array[n++] = letters[i];
+			}
+		}
+		return array;
+	}
+	
+	/**
+	 * Converts array of letters to bit mask.
+	 * 
+	 * @param notes		Array of notes, may be null.
+	 * @return			Bit mask, bit i set if i-th letter of NoteLookup.getLetters() is played.
+	 */
+	public static int notesToMask(String[] notes)
+	{
+		if(notes == null)
+		{
+			return noiseMask;
+		}
+		
+		String[] letters = NoteLookup.getLetters();
+		int mask = 0;
+		for(int i=0; i<notes.length; i++)
+		{
+			for(int j=0; j<letters.length; j++)
+			{
+				if(letters[j].equals(notes[i]))
+				{
+					mask |= 1 << j;
+				}
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Determining the most probable notes played
+	 * from summed intensities of every letter.
+	 * 
+	 * @param values		Intensities of letters, in order of NoteLookup.getLetters().
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @return				Bit mask of letters, noiseMask if sound is probably noise.
+	 */
+	static int selectNotes(double[] values, double tolerance)
+	{
 		//Finding maximum
 		double max = 0;
 		for(int i=0; i<values.length; i++)
@@ -64,64 +545,169 @@ public class NoteEstimate
 		//Determining the most probable notes played
 		//Converting tolerance factor to a number in range [0.0,1.0]
 		tolerance = Math.min(1.0, Math.abs(tolerance));
-		ArrayList<String> list = new ArrayList<String>();
+		int mask = 0;
 		for(int i=0; i<values.length; i++)
 		{
 			if(values[i] > max * tolerance)
 			{
-				list.add(letters[i]);
+				mask |= 1 << i;
 			}
 		}
 		
 		//If there is more than 5 notes detected
 		//it means that the sound is probably noise
-		if(list.size() > 5)
-		{
-			return null;
-		}
-
-		//ArrayList -> String[]
-		String[] array = new String[list.size()];
-		for(int i=0; i<array.length; i++)
+		if(Integer.bitCount(mask) > maxNotes)
 		{
-			array[i] = list.get(i);
+			return noiseMask;
 		}
-		return array;
+		return mask;
 	}
 	
 	/**
 	 * Sums intensity of certain frequencies.
-	 * @param frequencies			Array with frequency domain data.
-	 * @param symbolWithoutOctave	C,C#,D,D#,E,F,F#,G,G#,A,A# or B
+	 * @param frequencies	Array with frequency domain data.
+	 * @param letter		Index of letter in NoteLookup.getLetters(), 0 is C, 11 is B.
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param power			If true, array contains squared magnitudes.
+	 * @param interpolation	Method of interpolating peaks.
+	 * @param harmonicWeight	Weight of harmonic reinforcement, 0.0 to disable.
 	 * @return		Summed value used for further calculations.
-	 * @throws InvalidNoteException 
 	 */
-	private static double getNotesIntensity(double[] frequencies, String symbolWithoutOctave) throws InvalidNoteException
+	private static double getNotesIntensity(double[] frequencies, int letter, double binWidth, boolean power,
+			Interpolation interpolation, double harmonicWeight)
 	{
-		double diff = NoteLookup.getDiff()*0.956;
-		
-		double[] pitch = new double[4];
-		pitch[0] = NoteLookup.getFrequency(symbolWithoutOctave + "2");
-		pitch[1] = NoteLookup.getFrequency(symbolWithoutOctave + "3");
-		pitch[2] = NoteLookup.getFrequency(symbolWithoutOctave + "4");
-		pitch[3] = NoteLookup.getFrequency(symbolWithoutOctave + "5");
-		
 		double sum = 0.0;
-		for(int i=0; i<pitch.length; i++)
+		double previous = 0.0;
+		for(int i=0; i<octaves; i++)
 		{
-			double max = 0.0;
-			int start = Math.max(0, (int)(pitch[i]/diff));
-			int end = Math.min(frequencies.length, (int)(pitch[i]*diff));
-			for(int j=start; j<end; j++)
+			double max = getNoteMax(frequencies, pitches[letter*octaves + i], binWidth, interpolation);
+			
+			//Squaring keeps order, so only maximum needs square root
+			double value = power ? Math.sqrt(max) : max;
+			sum += value;
+			if(i > 0)
 			{
-				max = Math.max(max, frequencies[j]);
+				sum += harmonicWeight * Math.min(previous, value);
 			}
-			sum += max;
+			previous = value;
 		}
 		
 		return sum;
 	}
 	
+	/**
+	 * Finds the highest interpolated peak whose frequency
+	 * is in range [low, high).
+	 * 
+	 * For peak at bin k with neighbours a, b, c (or their logarithms
+	 * for Gaussian interpolation) position and height of the vertex are:
+	 * p = (a - c) / (2 * (a - 2b + c)),  height = b - (a - c) * p / 4
+	 * 
+	 * @param frequencies	Array with frequency domain data.
+	 * @param low			Lower bound of frequency (Hz).
+	 * @param high			Upper bound of frequency (Hz).
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param gaussian		If true, parabola is fitted to logarithms.
+	 * @return				Height of the highest peak, 0.0 if there is no peak in range.
+	 */
+	static double getPeak(double[] frequencies, double low, double high, double binWidth, boolean gaussian)
+	{
+		//Peak interpolated into range may lie one bin outside of it
+		int start = Math.max(1, (int)(low/binWidth) - 1);
+		int end = Math.min(frequencies.length - 1, (int)(high/binWidth) + 2);
+		
+		double max = 0.0;
+		for(int k=start; k<end; k++)
+		{
+			double a = frequencies[k-1];
+			double b = frequencies[k];
+			double c = frequencies[k+1];
+			if(b <= 0.0 || b < a || b < c)
+			{
+				continue;
+			}
+			
+			double p;
+			double height;
+			if(gaussian && a > 0.0 && c > 0.0)
+			{
+				double la = Math.log(a);
+				double lb = Math.log(b);
+				double lc = Math.log(c);
+				double d = la - 2.0*lb + lc;
+				p = (d == 0.0) ? 0.0 : 0.5 * (la - lc) / d;
+				height = Math.exp(lb - 0.25 * (la - lc) * p);
+			}
+			else
+			{
+				double d = a - 2.0*b + c;
+				p = (d == 0.0) ? 0.0 : 0.5 * (a - c) / d;
+				height = b - 0.25 * (a - c) * p;
+			}
+			
+			double frequency = (k + p) * binWidth;
+			if(frequency >= low && frequency < high)
+			{
+				max = Math.max(max, height);
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * Finds the strongest bin of note, or its interpolated peak.
+	 * 
+	 * @param frequencies	Array with frequency domain data.
+	 * @param pitch			Frequency of note (Hz).
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param interpolation	Method of interpolating peaks.
+	 * @return				Value of the strongest bin or height of peak.
+	 */
+	static double getNoteMax(double[] frequencies, double pitch, double binWidth, Interpolation interpolation)
+	{
+		if(interpolation != Interpolation.NONE)
+		{
+			return getPeak(frequencies, pitch/halfSemitone, pitch*halfSemitone, binWidth, interpolation == Interpolation.GAUSSIAN);
+		}
+		
+		double max = 0.0;
+		final int end = endBin(pitch, binWidth, frequencies.length);
+		for(int j=startBin(pitch, binWidth); j<end; j++)
+		{
+			max = Math.max(max, frequencies[j]);
+		}
+		return max;
+	}
+	
+	/**
+	 * Returns index of the first bin searched for note of given frequency.
+	 * Value of this bin is always taken into account
+	 * when intensity of note is summed.
+	 * 
+	 * @param frequency		Frequency of note (Hz).
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @return				Index of bin.
+	 */
+	static int startBin(double frequency, double binWidth)
+	{
+		return Math.max(0, (int)(frequency/rangeDiff/binWidth));
+	}
+	
+	/**
+	 * Returns index of bin after the last one searched for note
+	 * of given frequency. At least one bin is searched, even
+	 * if spectrum is coarse.
+	 * 
+	 * @param frequency		Frequency of note (Hz).
+	 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+	 * @param length		Number of bins of spectrum.
+	 * @return				Index of bin, not greater than length.
+	 */
+	static int endBin(double frequency, double binWidth, int length)
+	{
+		return Math.min(length, Math.max(startBin(frequency, binWidth)+1, (int)(frequency*rangeDiff/binWidth)));
+	}
+	
 	/**
 	 * @return Default tolerance.
 	 */
@@ -0,0 +1,65 @@
+/**
+ * NoteEvent.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+
+/**
+ * NoteEvent contains notes estimated in one frame of a stream.
+ *
+ * @author Krzysztof Pajk
+ */
+public class NoteEvent
+{
+	//Index of frame in the stream
+	private final long frame;
+	
+	//Time of the end of frame in seconds
+	private final double time;
+	
+	//Estimated notes, null if frame is silent or noise
+	private final String[] notes;
+	
+	/**
+	 * @param frame		Index of frame in the stream.
+	 * @param time		Time of the end of frame in seconds.
+	 * @param notes		Estimated notes, null if frame is silent or noise.
+	 */
+	public NoteEvent(long frame, double time, String[] notes)
+	{
+		this.frame = frame;
+		this.time = time;
+		this.notes = notes;
+	}
+	
+	/**
+	 * @return	Index of frame in the stream.
+	 */
+	public long getFrame()
+	{
+		return frame;
+	}
+	
+	/**
+	 * @return	Time of the end of frame in seconds.
+	 */
+	public double getTime()
+	{
+		return time;
+	}
+	
+	/**
+	 * @return	Estimated notes, null if frame is silent or noise.
+	 */
+	public String[] getNotes()
+	{
+		return (notes == null) ? null : notes.clone();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return frame + " " + time + "s " + ((notes == null) ? "-" : String.join(",", notes));
+	}
+}
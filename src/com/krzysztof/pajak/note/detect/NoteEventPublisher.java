@@ -0,0 +1,448 @@
+/**
+ * NoteEventPublisher.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NoteEventPublisher runs StreamingNoteDetect on given executor
+ * and publishes estimated notes to subscribers, respecting their demand.
+ *
+ * Producer passes hops of the stream with submit(). Hops wait in a bounded
+ * queue and are processed one by one, in order. Every processed frame
+ * gives NoteEvent, which is delivered to every subscriber that requested it.
+ * When a subscriber falls behind, its events wait in a bounded buffer,
+ * and when the buffer is full, chosen policy applies:
+ * - DROP: new events are dropped,
+ * - COALESCE: the newest waiting event is replaced by the new one,
+ * - BLOCK: processing stops until subscriber requests more events,
+ *   so queue of hops fills up and submit() blocks the producer.
+ * Policies apply only to events, hops are never dropped: detector keeps
+ * the last frame between hops, so a missing hop would corrupt the frames
+ * that follow it. With DROP and COALESCE submit() blocks only while
+ * processing itself is slower than the stream.
+ *
+ * Subscriber and Subscription interfaces have the same methods as
+ * java.util.concurrent.Flow, which is not available in Java 8 the library
+ * is built for, so adapting them to Flow takes a few lines.
+ *
+ * @author Krzysztof Pajk
+ */
+public class NoteEventPublisher
+{
+	/**
+	 * Receiver of published items, same as java.util.concurrent.Flow.Subscriber.
+	 */
+	public interface Subscriber<T>
+	{
+		void onSubscribe(Subscription subscription);
+		void onNext(T item);
+		void onError(Throwable throwable);
+		void onComplete();
+	}
+	
+	/**
+	 * Link between publisher and subscriber, same as java.util.concurrent.Flow.Subscription.
+	 */
+	public interface Subscription
+	{
+		void request(long n);
+		void cancel();
+	}
+	
+	/**
+	 * What happens when a subscriber's buffer is full.
+	 */
+	public enum OverflowPolicy
+	{
+		DROP,
+		COALESCE,
+		BLOCK
+	}
+	
+	//Default number of hops waiting for processing and events waiting for subscriber
+	final static int defaultBufferSize = 16;
+	
+	private final StreamingNoteDetect detect;
+	private final Executor executor;
+	private final OverflowPolicy policy;
+	private final int bufferSize;
+	private final double hopSeconds;
+	
+	//Hops waiting for processing, empty array marks end of stream
+	private final ArrayBlockingQueue<double[]> hops;
+	private final static double[] END = new double[0];
+	
+	private final CopyOnWriteArrayList<NoteSubscription> subscriptions = new CopyOnWriteArrayList<NoteSubscription>();
+	
+	//New subscriptions, which get onSubscribe from drain loop
+	private final ConcurrentLinkedQueue<NoteSubscription> joining = new ConcurrentLinkedQueue<NoteSubscription>();
+	
+	//Number of requests to run drain loop, only one loop runs at a time
+	private final AtomicInteger work = new AtomicInteger();
+	
+	//State used only by drain loop
+	private long frame = 0;
+	private boolean completed = false;
+	private Throwable error = null;
+	
+	/**
+	 * Creates publisher with default buffer size.
+	 *
+	 * @param detect		Detector processing hops, used only by this publisher.
+	 * @param hopSize		Number of samples in every hop.
+	 * @param sampleRate	Sampling rate.
+	 * @param executor		Executor running processing stage and delivering events.
+	 * @param policy		What happens when subscriber falls behind.
+	 */
+	public NoteEventPublisher(StreamingNoteDetect detect, int hopSize, int sampleRate, Executor executor, OverflowPolicy policy)
+	{
+		this(detect, hopSize, sampleRate, executor, policy, defaultBufferSize);
+	}
+	
+	/**
+	 * Creates publisher.
+	 *
+	 * @param detect		Detector processing hops, used only by this publisher.
+	 * @param hopSize		Number of samples in every hop.
+	 * @param sampleRate	Sampling rate.
+	 * @param executor		Executor running processing stage and delivering events.
+	 * @param policy		What happens when subscriber falls behind.
+	 * @param bufferSize	Number of hops and events that may wait.
+	 */
+	public NoteEventPublisher(StreamingNoteDetect detect, int hopSize, int sampleRate, Executor executor, OverflowPolicy policy, int bufferSize)
+	{
+		if(bufferSize < 1)
+		{
+			throw new IllegalArgumentException("Buffer size has to be positive");
+		}
+		this.detect = detect;
+		this.executor = executor;
+		this.policy = policy;
+		this.bufferSize = bufferSize;
+		this.hopSeconds = (double) hopSize / sampleRate;
+		this.hops = new ArrayBlockingQueue<double[]>(bufferSize + 1);
+	}
+	
+	/**
+	 * Adds subscriber. Like every other signal, onSubscribe is called
+	 * by drain loop, and subscriber gets only events of frames
+	 * processed after it returns.
+	 *
+	 * @param subscriber	New subscriber.
+	 */
+	public void subscribe(Subscriber<? super NoteEvent> subscriber)
+	{
+		joining.add(new NoteSubscription(subscriber));
+		schedule();
+	}
+	
+	/**
+	 * Passes new hop of the stream. Blocks while queue of hops is full.
+	 *
+	 * @param hop	New samples in time domain.
+	 * @throws InterruptedException
+	 */
+	public void submit(double[] hop) throws InterruptedException
+	{
+		if(hop.length == 0)
+		{
+			return;
+		}
+		
+		hops.put(hop);
+		schedule();
+	}
+	
+	/**
+	 * Ends the stream. Subscribers get onComplete after
+	 * every hop submitted before is processed.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException
+	{
+		hops.put(END);
+		schedule();
+	}
+	
+	/**
+	 * Runs drain loop on executor, unless it is already running.
+	 */
+	private void schedule()
+	{
+		if(work.getAndIncrement() == 0)
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					drain();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Processes waiting hops and delivers events according to demand.
+	 * Only one thread runs this method at a time.
+	 */
+	private void drain()
+	{
+		int missed = 1;
+		while(true)
+		{
+			//Subscription is registered after onSubscribe, so no other signal can overtake it
+			NoteSubscription subscription;
+			while((subscription = joining.poll()) != null)
+			{
+				subscription.start();
+			}
+			
+			for(NoteSubscription s : subscriptions)
+			{
+				s.deliver();
+			}
+			
+			while(!completed && canProcess())
+			{
+				double[] hop = hops.poll();
+				if(hop == null)
+				{
+					break;
+				}
+				if(hop == END)
+				{
+					completed = true;
+					break;
+				}
+				
+				try
+				{
+					NoteEvent event = new NoteEvent(frame, (frame + 1) * hopSeconds, detect.process(hop));
+					frame++;
+					for(NoteSubscription s : subscriptions)
+					{
+						s.offer(event);
+					}
+				}
+				catch(Exception e)
+				{
+					completed = true;
+					error = e;
+				}
+			}
+			
+			if(completed)
+			{
+				for(NoteSubscription s : subscriptions)
+				{
+					s.finish();
+				}
+			}
+			
+			missed = work.addAndGet(-missed);
+			if(missed == 0)
+			{
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * @return	False if BLOCK policy applies and any subscriber's buffer is full.
+	 */
+	private boolean canProcess()
+	{
+		if(policy != OverflowPolicy.BLOCK)
+		{
+			return true;
+		}
+		for(NoteSubscription s : subscriptions)
+		{
+			if(s.isFull())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Subscription with its demand and buffer of waiting events.
+	 * Events are delivered only by drain loop.
+	 */
+	private class NoteSubscription implements Subscription
+	{
+		private final Subscriber<? super NoteEvent> subscriber;
+		private final ArrayDeque<NoteEvent> buffer = new ArrayDeque<NoteEvent>();
+		
+		//Requested number of events, modified by subscriber and drain loop
+		private long demand = 0;
+		private volatile boolean cancelled = false;
+		private boolean finished = false;
+		
+		//Error of invalid request, signalled by drain loop
+		private volatile Throwable rejected = null;
+		
+		NoteSubscription(Subscriber<? super NoteEvent> subscriber)
+		{
+			this.subscriber = subscriber;
+		}
+		
+		@Override
+		public void request(long n)
+		{
+			if(n <= 0)
+			{
+				//Subscriber's methods are called only by drain loop, never on caller's thread
+				rejected = new IllegalArgumentException("Number of requested events has to be positive");
+				schedule();
+				return;
+			}
+			synchronized(this)
+			{
+				demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+			}
+			schedule();
+		}
+		
+		@Override
+		public void cancel()
+		{
+			cancelled = true;
+			subscriptions.remove(this);
+			schedule();
+		}
+		
+		/**
+		 * Calls onSubscribe and registers subscription, unless it was cancelled.
+		 */
+		void start()
+		{
+			try
+			{
+				subscriber.onSubscribe(this);
+			}
+			catch(RuntimeException e)
+			{
+				cancelled = true;
+				subscriber.onError(e);
+				return;
+			}
+			if(!cancelled)
+			{
+				subscriptions.add(this);
+			}
+		}
+		
+		/**
+		 * Delivers waiting events while there is demand.
+		 */
+		void deliver()
+		{
+			if(rejected != null && !cancelled)
+			{
+				cancel();
+				subscriber.onError(rejected);
+				return;
+			}
+			while(!cancelled && !buffer.isEmpty() && take())
+			{
+				next(buffer.poll());
+			}
+		}
+		
+		/**
+		 * Delivers new event or puts it into buffer.
+		 */
+		void offer(NoteEvent event)
+		{
+			if(cancelled || rejected != null)
+			{
+				return;
+			}
+			if(buffer.isEmpty() && take())
+			{
+				next(event);
+				return;
+			}
+			if(buffer.size() < bufferSize || policy == OverflowPolicy.BLOCK)
+			{
+				buffer.add(event);
+			}
+			else if(policy == OverflowPolicy.COALESCE)
+			{
+				buffer.pollLast();
+				buffer.add(event);
+			}
+		}
+		
+		/**
+		 * Signals end of stream once every waiting event is delivered.
+		 */
+		void finish()
+		{
+			if(finished || cancelled || (error == null && !buffer.isEmpty()))
+			{
+				return;
+			}
+			finished = true;
+			subscriptions.remove(this);
+			if(error != null)
+			{
+				subscriber.onError(error);
+			}
+			else
+			{
+				subscriber.onComplete();
+			}
+		}
+		
+		/**
+		 * Calls onNext, subscriber throwing exception is cancelled.
+		 */
+		private void next(NoteEvent event)
+		{
+			try
+			{
+				subscriber.onNext(event);
+			}
+			catch(RuntimeException e)
+			{
+				cancel();
+				subscriber.onError(e);
+			}
+		}
+		
+		boolean isFull()
+		{
+			return !cancelled && rejected == null && buffer.size() >= bufferSize;
+		}
+		
+		/**
+		 * Takes one unit of demand.
+		 * @return	False if subscriber has not requested any more events.
+		 */
+		private synchronized boolean take()
+		{
+			if(demand == 0)
+			{
+				return false;
+			}
+			if(demand != Long.MAX_VALUE)
+			{
+				demand--;
+			}
+			return true;
+		}
+	}
+}
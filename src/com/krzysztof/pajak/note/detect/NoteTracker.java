@@ -0,0 +1,162 @@
+/**
+ * NoteTracker.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import com.krzysztof.pajak.note.algorithms.SlidingDFT;
+import com.krzysztof.pajak.note.exceptions.InvalidNoteException;
+import com.krzysztof.pajak.note.tools.NoteLookup;
+
+/**
+ * NoteTracker estimates notes played in a stream of samples.
+ *
+ * Instead of transforming whole window for every estimation,
+ * it uses sliding DFT to track only the bins read by NoteEstimate,
+ * one bin per letter and octave. Every new sample updates them,
+ * so cost of each sample depends on number of tracked notes,
+ * not on window size.
+ *
+ * Notes are estimated directly from tracked bins, with the same result
+ * as NoteEstimate.getNotes() for spectrum returned by getSpectrum(),
+ * which has layout of data used by NoteEstimate, index is frequency in Hz.
+ *
+ * @author Krzysztof Pajk
+ */
+public class NoteTracker
+{
+	//Sampling rate
+	private final int sampleRate;
+	
+	//Sliding DFT tracking frequencies of notes
+	private final SlidingDFT dft;
+	
+	//Indices of spectrum array where tracked bins are stored
+	private final int[] bins;
+	
+	//Spectrum in layout used by NoteEstimate, up to the highest tracked bin
+	private final double[] spectrum;
+	
+	/**
+	 * Class constructor specifying window size.
+	 * Sampling rate is set as default 44100 (Hz).
+	 *
+	 * @param windowSize	Number of last samples taken into account.
+	 */
+	public NoteTracker(int windowSize)
+	{
+		this(windowSize, 44100);
+	}
+	
+	/**
+	 * Class constructor specifying window size and sampling rate.
+	 *
+	 * @param windowSize	Number of last samples taken into account.
+	 * @param sampleRate	Sampling rate.
+	 */
+	public NoteTracker(int windowSize, int sampleRate)
+	{
+		this.sampleRate = sampleRate;
+		
+		final int octaves = NoteEstimate.highestOctave - NoteEstimate.lowestOctave + 1;
+		final int count = 12 * octaves;
+		
+		double[] frequencies = new double[count];
+		this.bins = new int[count];
+		int last = 0;
+		for(int i=0; i<count; i++)
+		{
+			frequencies[i] = NoteLookup.getFrequency(NoteEstimate.lowestOctave * 12 + i);
+			bins[i] = NoteEstimate.startBin(frequencies[i], 1.0);
+			last = Math.max(last, bins[i]);
+		}
+		
+		this.dft = new SlidingDFT(frequencies, windowSize, sampleRate);
+		this.spectrum = new double[last + 1];
+	}
+	
+	/**
+	 * Adds new sample to the tracked window.
+	 * @param sample	New sample in time domain.
+	 */
+	public void update(double sample)
+	{
+		dft.update(sample);
+	}
+	
+	/**
+	 * Adds new samples to the tracked window.
+	 * @param samples	New samples in time domain.
+	 */
+	public void update(double[] samples)
+	{
+		dft.update(samples);
+	}
+	
+	/**
+	 * Returns spectrum of current window, which can be passed
+	 * to NoteEstimate.getNotes(). Only tracked bins have non-zero values.
+	 *
+	 * Returned array is reused by subsequent calls.
+	 *
+	 * @return	Data in frequency domain, index is frequency in Hz.
+	 */
+	public double[] getSpectrum()
+	{
+		for(int i=0; i<bins.length; i++)
+		{
+			spectrum[bins[i]] = dft.magnitude(i);
+		}
+		return spectrum;
+	}
+	
+	/**
+	 * Estimates notes played in current window.
+	 *
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 * @return				Array of notes
+	 * @throws InvalidNoteException
+	 */
+	public String[] getNotes(double tolerance) throws InvalidNoteException
+	{
+		//Tracked bin is the only non-zero bin in range of its note,
+		//so intensity of letter is sum of its bins, octaves in ascending order
+		double[] values = NoteEstimate.scratch.get();
+		for(int i=0; i<12; i++)
+		{
+			values[i] = 0.0;
+		}
+		for(int i=0; i<bins.length; i++)
+		{
+			values[i % 12] += dft.magnitude(i);
+		}
+		return NoteEstimate.maskToNotes(NoteEstimate.selectNotes(values, tolerance));
+	}
+	
+	/**
+	 * Estimates notes played in current window using default tolerance.
+	 *
+	 * @return				Array of notes
+	 * @throws InvalidNoteException
+	 */
+	public String[] getNotes() throws InvalidNoteException
+	{
+		return getNotes(NoteEstimate.getDefaultTolerance());
+	}
+	
+	/**
+	 * Clears tracked window.
+	 */
+	public void reset()
+	{
+		dft.reset();
+	}
+	
+	/**
+	 * @return	Sampling rate.
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+}
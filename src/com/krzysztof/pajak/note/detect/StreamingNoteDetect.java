@@ -0,0 +1,251 @@
+/**
+ * StreamingNoteDetect.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.krzysztof.pajak.note.algorithms.AbstractAlgorithm;
+import com.krzysztof.pajak.note.exceptions.InputSamplesException;
+import com.krzysztof.pajak.note.exceptions.InvalidAlgorithmException;
+import com.krzysztof.pajak.note.exceptions.InvalidNoteException;
+import com.krzysztof.pajak.note.processing.OnsetGate;
+import com.krzysztof.pajak.note.tools.PcmDecoder;
+
+/**
+ * StreamingNoteDetect estimates notes played in a stream of samples.
+ *
+ * Stream is passed in hops, blocks of new samples. Every hop ends
+ * a frame made of the last frameSize samples, which is processed
+ * the same way as in NoteDetect.
+ *
+ * Before processing, frame goes through OnsetGate. If it is silent,
+ * null is returned without any further calculations. If it contains
+ * the same sound as previous frame, the last estimate is returned.
+ * Only frames with something new go through filters, FFT and estimation.
+ *
+ * Stream of bytes can be processed directly with PcmDecoder,
+ * hop after hop, so that it never has to be held in memory.
+ *
+ * @author Krzysztof Pajk
+ */
+public class StreamingNoteDetect
+{
+	//Detector used for frames that have to be processed
+	private final NoteDetect detect;
+	
+	//Last frameSize samples of the stream
+	private final double[] frame;
+	
+	//Number of new samples in a hop
+	private final int hopSize;
+	
+	//Gate deciding whether frame has to be processed, null if disabled
+	private OnsetGate gate;
+	
+	//Tolerance for estimating
+	private double tolerance = NoteEstimate.getDefaultTolerance();
+	
+	//Last estimate, returned for frames without anything new
+	private String[] last = null;
+	private boolean estimated = false;
+	
+	//Counters of processed and skipped frames
+	private long processedFrames = 0;
+	private long skippedFrames = 0;
+	
+	/**
+	 * Receives estimates of frames of decoded stream.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called after every hop.
+		 * @param position	Number of samples decoded so far, end of frame.
+		 * @param notes		Most probable notes played in frame, null if silent or noise.
+		 */
+		void notes(long position, String[] notes);
+	}
+	
+	/**
+	 * Class constructor specifying frame and hop size.
+	 * Sampling rate is set as default 44100 (Hz).
+	 *
+	 * @param frameSize		Number of samples in a frame.
+	 * @param hopSize		Number of new samples passed to process method.
+	 */
+	public StreamingNoteDetect(int frameSize, int hopSize)
+	{
+		this(frameSize, hopSize, 44100);
+	}
+	
+	/**
+	 * Class constructor specifying frame size, hop size and sampling rate.
+	 *
+	 * @param frameSize		Number of samples in a frame.
+	 * @param hopSize		Number of new samples passed to process method.
+	 * @param sampleRate	Sampling rate.
+	 */
+	public StreamingNoteDetect(int frameSize, int hopSize, int sampleRate)
+	{
+		if(hopSize < 1 || frameSize < hopSize)
+		{
+			throw new IllegalArgumentException("Hop size has to be positive and not greater than frame size");
+		}
+		
+		this.frame = new double[frameSize];
+		this.hopSize = hopSize;
+		this.gate = new OnsetGate((frameSize + hopSize - 1) / hopSize);
+		this.detect = new NoteDetect(frame, sampleRate);
+		this.detect.checkSilence = false;
+	}
+	
+	/**
+	 * Passes new hop of the stream and returns notes played
+	 * in frame ending with this hop.
+	 *
+	 * @param hop	New samples in time domain.
+	 * @return		Most probable notes played in current frame, null if silent or noise.
+	 * @throws InvalidAlgorithmException
+	 * @throws InputSamplesException
+	 * @throws InvalidNoteException
+	 */
+	public String[] process(double[] hop) throws InvalidAlgorithmException, InputSamplesException, InvalidNoteException
+	{
+		//Shifting frame and appending new samples
+		final int length = Math.min(hop.length, frame.length);
+		System.arraycopy(frame, length, frame, 0, frame.length - length);
+		System.arraycopy(hop, hop.length - length, frame, frame.length - length, length);
+		
+		OnsetGate.State state = (gate == null) ? OnsetGate.State.ONSET : gate.update(hop);
+		if(state == OnsetGate.State.SILENCE)
+		{
+			skippedFrames++;
+			last = null;
+			estimated = false;
+			return null;
+		}
+		if(state == OnsetGate.State.SUSTAIN && estimated)
+		{
+			skippedFrames++;
+			return last;
+		}
+		
+		processedFrames++;
+		detect.setSamples(frame);
+		last = detect.run(tolerance);
+		estimated = true;
+		return last;
+	}
+	
+	/**
+	 * Decodes stream hop after hop and processes every hop as soon
+	 * as it is decoded, until end of stream. Only one hop of samples
+	 * is kept besides the frame, so memory doesn't depend on length
+	 * of stream, and latency is one hop plus time of its processing.
+	 * The last hop may be shorter.
+	 *
+	 * @param decoder		Decoder of stream, with sampling rate of this detector.
+	 * @param listener		Receiver of estimates.
+	 * @return				Number of decoded samples.
+	 * @throws IOException
+	 * @throws InvalidAlgorithmException
+	 * @throws InputSamplesException
+	 * @throws InvalidNoteException
+	 */
+	public long process(PcmDecoder decoder, Listener listener) throws IOException, InvalidAlgorithmException, InputSamplesException, InvalidNoteException
+	{
+		if(decoder.getSampleRate() != detect.sampleRate)
+		{
+			throw new IllegalArgumentException("Sampling rate of stream is " + decoder.getSampleRate() + ", detector expects " + detect.sampleRate);
+		}
+		
+		double[] hop = new double[hopSize];
+		long position = 0;
+		int n;
+		while((n = decoder.read(hop, 0, hopSize)) > 0)
+		{
+			position += n;
+			listener.notes(position, process((n == hopSize) ? hop : Arrays.copyOf(hop, n)));
+		}
+		return position;
+	}
+	
+	/**
+	 * Changes gate deciding which frames have to be processed.
+	 * @param gate	Gate, or null to process every frame.
+	 */
+	public void setGate(OnsetGate gate)
+	{
+		this.gate = gate;
+	}
+	
+	/**
+	 * Changes profile of instrument used for every processed frame.
+	 * Profile is compiled once, when the first frame is processed.
+	 * @param profile	Profile, default DetectorProfile.DEFAULT.
+	 */
+	public void setProfile(DetectorProfile profile)
+	{
+		detect.setProfile(profile);
+		last = null;
+		estimated = false;
+	}
+	
+	/**
+	 * Changes tolerance for estimating.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 */
+	public void setTolerance(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+	
+	/**
+	 * Changes algorithm that converts data from time domain
+	 * to frequency domain.
+	 *
+	 * @param algorithmClass	Class that extends AbstractAlgorithm class.
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 */
+	public <T extends AbstractAlgorithm> void setAlgorithm(Class<T> algorithmClass) throws InstantiationException, IllegalAccessException
+	{
+		detect.setAlgorithm(algorithmClass);
+	}
+	
+	/**
+	 * Clears frame, gate and last estimate.
+	 */
+	public void reset()
+	{
+		for(int i=0; i<frame.length; i++)
+		{
+			frame[i] = 0.0;
+		}
+		if(gate != null)
+		{
+			gate.reset();
+		}
+		last = null;
+		estimated = false;
+	}
+	
+	/**
+	 * @return	Number of frames that went through filters, FFT and estimation.
+	 */
+	public long getProcessedFrames()
+	{
+		return processedFrames;
+	}
+	
+	/**
+	 * @return	Number of frames skipped by the gate.
+	 */
+	public long getSkippedFrames()
+	{
+		return skippedFrames;
+	}
+}
@@ -0,0 +1,305 @@
+/**
+ * Transcriber.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.detect;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.krzysztof.pajak.note.algorithms.AbstractAlgorithm;
+import com.krzysztof.pajak.note.algorithms.IterativeFFT;
+import com.krzysztof.pajak.note.exceptions.InputSamplesException;
+import com.krzysztof.pajak.note.exceptions.InvalidAlgorithmException;
+import com.krzysztof.pajak.note.exceptions.InvalidNoteException;
+import com.krzysztof.pajak.note.tools.MidiFileWriter;
+
+/**
+ * Transcriber converts long recording to a timeline of notes
+ * written to a MIDI file.
+ *
+ * Recording is divided into frames, frameSize samples every hopSize samples,
+ * and notes of every frame are estimated by NoteDetect. Frames are grouped
+ * into segments (overlapping in samples, because frames are longer than hops),
+ * which are processed in parallel with fork/join. Segments are written
+ * in order as soon as they are done: a note starts when its letter appears
+ * in a frame and ends when it disappears. Only a few segments are processed
+ * at once, so memory doesn't depend on length of the recording.
+ *
+ * NoteDetect estimates letters without octaves, so every note
+ * is written in the same octave, 4 by default.
+ *
+ * @author Krzysztof Pajk
+ */
+public class Transcriber
+{
+	//Default number of frames in one segment
+	final static int defaultSegmentFrames = 64;
+	
+	//Segments with fewer frames are not divided further
+	final static int minTaskFrames = 4;
+	
+	//Velocity of written notes
+	final static int velocity = 100;
+	
+	private final int sampleRate;
+	private final int frameSize;
+	private final int hopSize;
+	
+	private int segmentFrames = defaultSegmentFrames;
+	private int octave = 4;
+	private double tolerance = NoteEstimate.getDefaultTolerance();
+	private Class<? extends AbstractAlgorithm> algorithm = IterativeFFT.class;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	
+	/**
+	 * Class constructor specifying sampling rate and framing.
+	 *
+	 * @param sampleRate	Sampling rate.
+	 * @param frameSize		Number of samples in a frame.
+	 * @param hopSize		Number of samples between beginnings of consecutive frames.
+	 */
+	public Transcriber(int sampleRate, int frameSize, int hopSize)
+	{
+		if(hopSize < 1 || frameSize < 2)
+		{
+			throw new IllegalArgumentException("Invalid frame or hop size");
+		}
+		this.sampleRate = sampleRate;
+		this.frameSize = frameSize;
+		this.hopSize = hopSize;
+	}
+	
+	/**
+	 * Estimates notes of the recording and writes them to MIDI file.
+	 * Writer is not closed.
+	 *
+	 * @param samples	Recording in time domain.
+	 * @param writer	MIDI file writer.
+	 * @throws IOException
+	 * @throws InvalidAlgorithmException
+	 * @throws InputSamplesException
+	 * @throws InvalidNoteException
+	 */
+	public void transcribe(double[] samples, MidiFileWriter writer) throws IOException, InvalidAlgorithmException, InputSamplesException, InvalidNoteException
+	{
+		final int frames = (samples.length < frameSize) ? 0 : (samples.length - frameSize) / hopSize + 1;
+		final int segments = (frames + segmentFrames - 1) / segmentFrames;
+		final int inFlight = Math.max(2, 2 * pool.getParallelism());
+		
+		ArrayDeque<SegmentTask> queue = new ArrayDeque<SegmentTask>();
+		int next = 0;
+		int active = 0;
+		
+		while(next < segments || !queue.isEmpty())
+		{
+			//Keeping a few segments in progress
+			while(next < segments && queue.size() < inFlight)
+			{
+				int first = next * segmentFrames;
+				int last = Math.min(frames, first + segmentFrames);
+				SegmentTask task = new SegmentTask(samples, first, last, first, new int[last - first]);
+				pool.execute(task);
+				queue.add(task);
+				next++;
+			}
+			
+			//Writing the oldest segment as soon as it is done
+			SegmentTask task = queue.poll();
+			try
+			{
+				task.join();
+			}
+			catch(RuntimeException e)
+			{
+				rethrow(e);
+			}
+			for(int i=0; i<task.notes.length; i++)
+			{
+				active = writeChanges(writer, active, task.notes[i], task.first + i);
+			}
+		}
+		
+		//Ending notes played till the end
+		writeChanges(writer, active, 0, frames);
+	}
+	
+	/**
+	 * Writes note on and note off events for letters
+	 * that appeared or disappeared in a frame.
+	 *
+	 * @param writer	MIDI file writer.
+	 * @param active	Bit mask of letters played before the frame.
+	 * @param current	Bit mask of letters played in the frame.
+	 * @param frame		Index of frame.
+	 * @return			Bit mask of letters played after the frame.
+	 * @throws IOException
+	 */
+	private int writeChanges(MidiFileWriter writer, int active, int current, int frame) throws IOException
+	{
+		final double time = ((double) frame * hopSize + frameSize / 2.0) / sampleRate;
+		final int base = 12 * (octave + 1);
+		for(int i=0; i<12; i++)
+		{
+			int bit = 1 << i;
+			if((active & bit) != 0 && (current & bit) == 0)
+			{
+				writer.noteOff(time, base + i);
+			}
+		}
+		for(int i=0; i<12; i++)
+		{
+			int bit = 1 << i;
+			if((active & bit) == 0 && (current & bit) != 0)
+			{
+				writer.noteOn(time, base + i, velocity);
+			}
+		}
+		return current;
+	}
+	
+	/**
+	 * Throws checked exception wrapped by a task. Fork/join may wrap
+	 * exception of a task thrown in another thread once more, so whole
+	 * chain of causes is searched.
+	 */
+	private static void rethrow(RuntimeException e) throws InvalidAlgorithmException, InputSamplesException, InvalidNoteException
+	{
+		for(Throwable cause = e; cause != null; cause = cause.getCause())
+		{
+			if(cause instanceof InvalidAlgorithmException)
+			{
+				throw (InvalidAlgorithmException) cause;
+			}
+			if(cause instanceof InputSamplesException)
+			{
+				throw (InputSamplesException) cause;
+			}
+			if(cause instanceof InvalidNoteException)
+			{
+				throw (InvalidNoteException) cause;
+			}
+		}
+		throw e;
+	}
+	
+	/**
+	 * Changes number of frames in one segment.
+	 * @param segmentFrames		Number of frames, default 64.
+	 */
+	public void setSegmentFrames(int segmentFrames)
+	{
+		if(segmentFrames < 1)
+		{
+			throw new IllegalArgumentException("Segment has to contain at least one frame");
+		}
+		this.segmentFrames = segmentFrames;
+	}
+	
+	/**
+	 * Changes octave in which notes are written. Octave 9 isn't complete
+	 * in MIDI (G9 is the highest key), so the highest octave is 8.
+	 * @param octave	Octave in range [-1,8], default 4.
+	 */
+	public void setOctave(int octave)
+	{
+		if(octave < -1 || octave > 8)
+		{
+			throw new IllegalArgumentException("Octave out of MIDI range");
+		}
+		this.octave = octave;
+	}
+	
+	/**
+	 * Changes tolerance for estimating.
+	 * @param tolerance		Tolerance factor in range [0.0,1.0] 1.0 the most strict, 0.0 the least.
+	 */
+	public void setTolerance(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+	
+	/**
+	 * Changes algorithm that converts data from time domain
+	 * to frequency domain.
+	 * @param algorithmClass	Class that extends AbstractAlgorithm class.
+	 */
+	public void setAlgorithm(Class<? extends AbstractAlgorithm> algorithmClass)
+	{
+		this.algorithm = algorithmClass;
+	}
+	
+	/**
+	 * Changes pool processing segments.
+	 * @param pool	Fork/join pool, common pool by default.
+	 */
+	public void setPool(ForkJoinPool pool)
+	{
+		this.pool = pool;
+	}
+	
+	/**
+	 * Fork/join task estimating notes of a range of frames.
+	 * Range is divided in halves until it is short enough.
+	 */
+	private class SegmentTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		final double[] samples;
+		
+		//Range of frames [first, last) and the first frame of whole segment
+		final int first;
+		final int last;
+		final int base;
+		
+		//Bit masks of letters played in every frame of the segment
+		final int[] notes;
+		
+		SegmentTask(double[] samples, int first, int last, int base, int[] notes)
+		{
+			this.samples = samples;
+			this.first = first;
+			this.last = last;
+			this.base = base;
+			this.notes = notes;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(last - first > minTaskFrames)
+			{
+				int middle = (first + last) >>> 1;
+				invokeAll(new SegmentTask(samples, first, middle, base, notes),
+						new SegmentTask(samples, middle, last, base, notes));
+				return;
+			}
+			
+			try
+			{
+				NoteDetect detect = new NoteDetect(new double[frameSize], sampleRate);
+				detect.setAlgorithm(algorithm);
+				double[] frame = new double[frameSize];
+				double[] intensities = new double[12];
+				for(int i=first; i<last; i++)
+				{
+					System.arraycopy(samples, i * hopSize, frame, 0, frameSize);
+					detect.setSamples(frame);
+					int mask = detect.runMask(tolerance, intensities);
+					notes[i - base] = (mask == NoteEstimate.noiseMask) ? 0 : mask;
+				}
+			}
+			catch(InstantiationException | IllegalAccessException e)
+			{
+				throw new RuntimeException(new InvalidAlgorithmException("Algorithm cannot be instantiated"));
+			}
+			catch(InvalidAlgorithmException | InputSamplesException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
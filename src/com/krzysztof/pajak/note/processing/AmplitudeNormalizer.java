@@ -4,6 +4,9 @@
  */
 
 package com.krzysztof.pajak.note.processing;
+import java.nio.DoubleBuffer;
+
+import com.krzysztof.pajak.note.tools.OffHeapBuffer;
 
 /**
  * AmplitudeNormalizer's run method slightly amplifies
@@ -37,6 +40,30 @@ public class AmplitudeNormalizer
 		return samples;
 	}
 	
+	/**
+	 * Amplifies samples stored in buffer outside of the heap,
+	 * the same way as run(double[]).
+	 * 
+	 * @param samples	Samples to amplify, modified in place.
+	 */
+	public static void run(OffHeapBuffer samples)
+	{
+		DoubleBuffer buffer = samples.buffer();
+		final int length = samples.length();
+		
+		double max = 0;
+		for(int i=0; i<length; i++)
+		{
+			max = Math.max(max, Math.abs(buffer.get(i)));
+		}
+		
+		final double factor = 1.0 / max;
+		for(int i=0; i<length; i++)
+		{
+			buffer.put(i, factor * buffer.get(i));
+		}
+	}
+	
 	/**
 	 * Finds and returns maximum absolute value in array.
 	 * @param array		Array to analyze
@@ -0,0 +1,332 @@
+/**
+ * Biquad.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.processing;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Biquad is a second order IIR filter section with coefficients
+ * of HighPassFilter or LowPassFilter, which can filter long signals
+ * on many threads.
+ *
+ * y[i] = a1*x[i] + a2*x[i-1] + a3*x[i-2] - b1*y[i-1] - b2*y[i-2]
+ *
+ * Every output depends on previous outputs, so the recurrence seems
+ * sequential. But it is linear: output of a block is the output calculated
+ * from zero state plus response to the true state at the beginning
+ * of the block, and that response is a combination of two fixed
+ * sequences (responses to state (1,0) and (0,1)). So in parallel mode:
+ * 1. every block is filtered from zero state, in parallel
+ *    (the first block from the true initial state, so it is exact),
+ * 2. true state at the end of every block is propagated from block
+ *    to block, which costs O(1) per block,
+ * 3. response to the true state is added to every block, in parallel,
+ *    only as long as it is larger than rounding errors.
+ *
+ * Output differs from sequential filter only by rounding errors.
+ *
+ * @author Krzysztof Pajk
+ */
+public class Biquad
+{
+	//Blocks shorter than this are not worth a separate task
+	final static int minBlockSize = 1 << 14;
+	
+	//Response to initial state smaller than this (relative) is not added
+	final static double negligible = 1e-18;
+	
+	//Coefficients
+	private final double a1;
+	private final double a2;
+	private final double a3;
+	private final double b1;
+	private final double b2;
+	
+	/**
+	 * Creates filter with given coefficients.
+	 *
+	 * @param a1	Coefficient of x[i].
+	 * @param a2	Coefficient of x[i-1].
+	 * @param a3	Coefficient of x[i-2].
+	 * @param b1	Coefficient of y[i-1].
+	 * @param b2	Coefficient of y[i-2].
+	 */
+	public Biquad(double a1, double a2, double a3, double b1, double b2)
+	{
+		this.a1 = a1;
+		this.a2 = a2;
+		this.a3 = a3;
+		this.b1 = b1;
+		this.b2 = b2;
+	}
+	
+	/**
+	 * Creates the same filter as HighPassFilter.
+	 *
+	 * @param f				Cutoff frequency.
+	 * @param r				Resonance amount.
+	 * @param sampleRate	Sampling rate.
+	 * @return				High pass filter.
+	 */
+	public static Biquad highPass(double f, double r, int sampleRate)
+	{
+		final double c = Math.tan(Math.PI * f / sampleRate);
+		final double a1 = 1.0 / ( 1.0 + r * c + c * c);
+		return new Biquad(a1, (-2.0) * a1, a1, 2.0 * (c*c - 1.0) * a1, (1.0 - r * c + c * c) * a1);
+	}
+	
+	/**
+	 * Creates the same filter as LowPassFilter. Arguments are in the same
+	 * order as of highPass(), not of LowPassFilter.run().
+	 *
+	 * @param f				Cutoff frequency.
+	 * @param r				Resonance amount.
+	 * @param sampleRate	Sampling rate.
+	 * @return				Low pass filter.
+	 */
+	public static Biquad lowPass(double f, double r, int sampleRate)
+	{
+		final double c = 1.0 / Math.tan(Math.PI * f / sampleRate);
+		final double a1 = 1.0 / ( 1.0 + r * c + c * c);
+		return new Biquad(a1, 2 * a1, a1, 2.0 * ( 1.0 - c*c) * a1, ( 1.0 - r * c + c * c) * a1);
+	}
+	
+	/**
+	 * Filters samples in calling thread. First two samples
+	 * are copied, like in HighPassFilter and LowPassFilter.
+	 *
+	 * @param input		Input samples.
+	 * @return			Returns filtered samples.
+	 */
+	public double[] run(double[] input)
+	{
+		double[] output = new double[input.length];
+		if(input.length < 2)
+		{
+			System.arraycopy(input, 0, output, 0, input.length);
+			return output;
+		}
+		output[0] = input[0];
+		output[1] = input[1];
+		filter(input, output, 2, input.length);
+		return output;
+	}
+	
+	/**
+	 * Filters samples in place, in calling thread, so that
+	 * a workspace can be filtered without creating any arrays.
+	 * First two samples are left unchanged, result is the same as of run(double[]).
+	 *
+	 * @param samples	Samples, modified in place.
+	 * @param length	Number of samples filtered.
+	 */
+	public void run(double[] samples, int length)
+	{
+		if(length < 2)
+		{
+			return;
+		}
+		double x2 = samples[0], x1 = samples[1];
+		double y2 = x2, y1 = x1;
+		for(int i=2; i<length; i++)
+		{
+			double x = samples[i];
+			double y = a1 * x + a2 * x1 + a3 * x2 - b1*y1 - b2*y2;
+			samples[i] = y;
+			x2 = x1; x1 = x;
+			y2 = y1; y1 = y;
+		}
+	}
+
+	/**
+	 * Filters samples on threads of given pool.
+	 * Short signals are filtered in calling thread.
+	 *
+	 * Time complexity: O(n/p + n/b + d)
+	 * Where n is size of input samples, p is number of threads,
+	 * b is size of block and d is length of response to initial state.
+	 *
+	 * @param input		Input samples.
+	 * @param pool		Fork/join pool.
+	 * @return			Returns filtered samples.
+	 */
+	public double[] run(double[] input, ForkJoinPool pool)
+	{
+		final int n = input.length;
+		final int blockSize = Math.max(minBlockSize, (n + 4*pool.getParallelism() - 1) / (4*pool.getParallelism()));
+		if(n < 2 * blockSize)
+		{
+			return run(input);
+		}
+		
+		double[] output = new double[n];
+		output[0] = input[0];
+		output[1] = input[1];
+		
+		//Block j covers samples [2 + j*blockSize, 2 + (j+1)*blockSize)
+		final int blocks = (n - 2 + blockSize - 1) / blockSize;
+		
+		//1. Filtering blocks from zero state
+		pool.invoke(new BlockTask(input, output, 0, blocks, blockSize, null, null, 0, null));
+		
+		//Responses to state (1,0) and (0,1) at the beginning of a block,
+		//needed only while they are not negligible
+		double[] g1 = new double[blockSize];
+		double[] g2 = new double[blockSize];
+		int length = homogeneous(g1, g2);
+		
+		//2. Propagating state: y[s-1], y[s-2] at the beginning of every block
+		double[] state1 = new double[blocks];
+		double[] state2 = new double[blocks];
+		for(int j=1; j<blocks; j++)
+		{
+			final int s = 2 + j*blockSize;
+			final double y1 = output[s-1];
+			final double y2 = output[s-2];
+			state1[j] = y1;
+			state2[j] = y2;
+			
+			//Corrected end state of this block becomes start state of the next one,
+			//block is corrected in step 3, so here only its last two samples are
+			final int e = Math.min(n, s + blockSize);
+			if(j + 1 < blocks)
+			{
+				final int last = e - 1 - s;
+				output[e-1] += g1[last]*y1 + g2[last]*y2;
+				output[e-2] += g1[last-1]*y1 + g2[last-1]*y2;
+			}
+		}
+		
+		//3. Adding response to the true state
+		pool.invoke(new BlockTask(input, output, 1, blocks, blockSize, g1, g2, length, new double[][] {state1, state2}));
+		return output;
+	}
+	
+	/**
+	 * Filters samples [start, end) of output, which
+	 * already contains two samples before start.
+	 */
+	private void filter(double[] input, double[] output, int start, int end)
+	{
+		for(int i=start; i<end; i++)
+		{
+			output[i] = a1 * input[i] + a2 * input[i-1] + a3 * input[i-2] - b1*output[i-1] - b2*output[i-2];
+		}
+	}
+	
+	/**
+	 * Calculates responses of recurrence without input
+	 * to initial states (1,0) and (0,1).
+	 *
+	 * @param g1	Response to y[-1] = 1, y[-2] = 0.
+	 * @param g2	Response to y[-1] = 0, y[-2] = 1.
+	 * @return		Number of samples after which responses are negligible.
+	 */
+	private int homogeneous(double[] g1, double[] g2)
+	{
+		double p1 = 1.0, p2 = 0.0;
+		double q1 = 0.0, q2 = 1.0;
+		for(int k=0; k<g1.length; k++)
+		{
+			g1[k] = -b1*p1 - b2*p2;
+			g2[k] = -b1*q1 - b2*q2;
+			p2 = p1; p1 = g1[k];
+			q2 = q1; q1 = g2[k];
+			
+			//Both states are negligible, so are all next samples.
+			//Stopping here also avoids slow arithmetic on denormal numbers
+			if(Math.max(Math.max(Math.abs(p1), Math.abs(p2)), Math.max(Math.abs(q1), Math.abs(q2))) < negligible)
+			{
+				return k + 1;
+			}
+		}
+		return g1.length;
+	}
+	
+	/**
+	 * Fork/join task processing a range of blocks, either
+	 * filtering them from zero state or adding response to true state.
+	 */
+	private class BlockTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		final double[] input;
+		final double[] output;
+		final int first;
+		final int last;
+		final int blockSize;
+		
+		//Responses to initial states, their length and states of blocks, null in the first step
+		final double[] g1;
+		final double[] g2;
+		final int length;
+		final double[][] states;
+		
+		BlockTask(double[] input, double[] output, int first, int last, int blockSize,
+				double[] g1, double[] g2, int length, double[][] states)
+		{
+			this.input = input;
+			this.output = output;
+			this.first = first;
+			this.last = last;
+			this.blockSize = blockSize;
+			this.g1 = g1;
+			this.g2 = g2;
+			this.length = length;
+			this.states = states;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(last - first > 1)
+			{
+				int middle = (first + last) >>> 1;
+				invokeAll(new BlockTask(input, output, first, middle, blockSize, g1, g2, length, states),
+						new BlockTask(input, output, middle, last, blockSize, g1, g2, length, states));
+				return;
+			}
+			
+			final int s = 2 + first*blockSize;
+			final int e = Math.min(output.length, s + blockSize);
+			if(states == null)
+			{
+				//The first block starts from true state, others from zero state,
+				//without reading outputs of previous block
+				if(first > 0)
+				{
+					output[s] = a1 * input[s] + a2 * input[s-1] + a3 * input[s-2];
+					if(s + 1 < e)
+					{
+						output[s+1] = a1 * input[s+1] + a2 * input[s] + a3 * input[s-1] - b1*output[s];
+					}
+					filter(input, output, s+2, e);
+				}
+				else
+				{
+					filter(input, output, s, e);
+				}
+				return;
+			}
+			
+			//The first block is exact
+			if(first == 0)
+			{
+				return;
+			}
+			
+			//The last two samples of blocks followed by another block are already corrected
+			final double y1 = states[0][first];
+			final double y2 = states[1][first];
+			final int end = Math.min(length, (first + 1 < states[0].length) ? e - s - 2 : e - s);
+			for(int k=0; k<end; k++)
+			{
+				output[s + k] += g1[k]*y1 + g2[k]*y2;
+			}
+		}
+	}
+}
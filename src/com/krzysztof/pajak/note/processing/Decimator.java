@@ -0,0 +1,134 @@
+/**
+ * Decimator.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.processing;
+
+/**
+ * Decimator reduces sampling rate of input samples by an integer factor.
+ *
+ * Before dropping samples, signal has to be band-limited below the new
+ * Nyquist frequency, otherwise higher frequencies would alias onto the notes.
+ * Decimator uses windowed-sinc FIR low pass filter split into polyphase
+ * components, so the filter is calculated only for samples that are kept:
+ *
+ * y[m] = sum over p,k of h[k*D + p] * x[(m-k)*D - p]
+ *
+ * Time complexity: O(n*t)
+ * Where n is size of input samples and t is number of taps per phase.
+ *
+ * @author Krzysztof Pajk
+ */
+public class Decimator
+{
+	//Default number of filter taps per polyphase component
+	final static int defaultTapsPerPhase = 16;
+	
+	//Cutoff frequency as a fraction of the new Nyquist frequency
+	final static double passband = 0.9;
+	
+	/**
+	 * Reduces sampling rate of input samples.
+	 * New sampling rate is sampleRate / factor.
+	 *
+	 * @param input		Input samples.
+	 * @param factor	Decimation factor.
+	 * @return			Decimated samples.
+	 */
+	public static double[] run(double[] input, int factor)
+	{
+		return run(input, factor, defaultTapsPerPhase);
+	}
+	
+	/**
+	 * Reduces sampling rate of input samples.
+	 * New sampling rate is sampleRate / factor.
+	 *
+	 * @param input			Input samples.
+	 * @param factor		Decimation factor.
+	 * @param tapsPerPhase	Length of each polyphase component of anti-aliasing filter.
+	 * @return				Decimated samples.
+	 */
+	public static double[] run(double[] input, int factor, int tapsPerPhase)
+	{
+		if(factor < 1 || tapsPerPhase < 1)
+		{
+			throw new IllegalArgumentException("Decimation factor and number of taps have to be positive");
+		}
+		if(factor == 1)
+		{
+			return input.clone();
+		}
+		
+		final double[][] phases = design(factor, tapsPerPhase);
+		final int length = (input.length + factor - 1) / factor;
+		double[] output = new double[length];
+		
+		for(int m=0; m<length; m++)
+		{
+			final int base = m * factor;
+			double sum = 0.0;
+			for(int p=0; p<factor; p++)
+			{
+				final double[] h = phases[p];
+				int index = base - p;
+				for(int k=0; k<tapsPerPhase && index >= 0; k++)
+				{
+					sum += h[k] * input[index];
+					index -= factor;
+				}
+			}
+			output[m] = sum;
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Returns the greatest decimation factor that keeps
+	 * given frequency below cutoff of anti-aliasing filter.
+	 *
+	 * @param sampleRate	Sampling rate.
+	 * @param frequency		The highest frequency that has to be preserved.
+	 * @return				Decimation factor, at least 1.
+	 */
+	public static int maxFactor(int sampleRate, double frequency)
+	{
+		return Math.max(1, (int)(passband * sampleRate / (2.0 * frequency)));
+	}
+	
+	/**
+	 * Designs windowed-sinc (Blackman window) low pass filter
+	 * and splits it into polyphase components.
+	 *
+	 * @param factor		Decimation factor.
+	 * @param tapsPerPhase	Length of each polyphase component.
+	 * @return				Polyphase components, phases[p][k] = h[k*factor + p].
+	 */
+	private static double[][] design(int factor, int tapsPerPhase)
+	{
+		final int length = factor * tapsPerPhase;
+		final double cutoff = passband * 0.5 / factor;
+		final double center = (length - 1) / 2.0;
+		
+		double[] h = new double[length];
+		double sum = 0.0;
+		for(int n=0; n<length; n++)
+		{
+			double x = n - center;
+			double sinc = (x == 0.0) ? 2.0 * cutoff : Math.sin(2.0 * Math.PI * cutoff * x) / (Math.PI * x);
+			double window = 0.42 - 0.5 * Math.cos(2.0 * Math.PI * n / (length - 1)) + 0.08 * Math.cos(4.0 * Math.PI * n / (length - 1));
+			h[n] = sinc * window;
+			sum += h[n];
+		}
+		
+		//Unity gain at DC
+		double[][] phases = new double[factor][tapsPerPhase];
+		for(int n=0; n<length; n++)
+		{
+			phases[n % factor][n / factor] = h[n] / sum;
+		}
+		return phases;
+	}
+}
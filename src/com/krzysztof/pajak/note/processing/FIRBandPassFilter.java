@@ -0,0 +1,290 @@
+/**
+ * FIRBandPassFilter.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.processing;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.krzysztof.pajak.note.algorithms.FFTPlan;
+import com.krzysztof.pajak.note.algorithms.IterativeFFT;
+
+/**
+ * Implementation of band pass filter, type windowed-sinc FIR.
+ *
+ * Band pass filters remove frequencies below lower cutoff frequency
+ * and above upper cutoff frequency. Unlike HighPassFilter and LowPassFilter,
+ * FIR filter has linear phase (every frequency is delayed by the same
+ * number of samples) and can be as steep as needed by adding taps.
+ *
+ * Long filters are calculated with fast convolution (overlap-add):
+ * input is divided into blocks, every block is converted to frequency
+ * domain, multiplied by frequency response of the filter and converted
+ * back. Parts of the result longer than the block are added to the
+ * next blocks. Frequency response depends only on configuration,
+ * so it is calculated once and shared by filters with the same one.
+ *
+ * Time complexity: O(n*lg(N))
+ * Where n is size of input samples and N is size of FFT (about 2*taps),
+ * instead of O(n*taps) of direct convolution.
+ *
+ * Filter keeps its state between calls of process(), so a stream can be
+ * filtered block after block. Output is delayed by getDelay() samples.
+ *
+ * @author Krzysztof Pajk
+ */
+public class FIRBandPassFilter
+{
+	//Default number of filter taps
+	final static int defaultTaps = 1023;
+	
+	//Frequency responses of filters, shared by every filter with the same configuration
+	private final static ConcurrentHashMap<String, double[][]> responses = new ConcurrentHashMap<String, double[][]>();
+	
+	private final int taps;
+	private final int blockSize;
+	private final FFTPlan plan;
+	
+	//Frequency response, read only
+	private final double[] hRe;
+	private final double[] hIm;
+	
+	//Workspace of FFT
+	private final double[] re;
+	private final double[] im;
+	
+	//Part of convolution of previous blocks that overlaps next samples
+	private final double[] tail;
+	
+	/**
+	 * Creates filter with default number of taps
+	 * and block size chosen for the fastest processing.
+	 *
+	 * @param low			Lower cutoff frequency.
+	 * @param high			Upper cutoff frequency.
+	 * @param sampleRate	Sampling rate.
+	 */
+	public FIRBandPassFilter(double low, double high, int sampleRate)
+	{
+		this(low, high, sampleRate, defaultTaps, 0);
+	}
+	
+	/**
+	 * Creates filter.
+	 *
+	 * @param low			Lower cutoff frequency.
+	 * @param high			Upper cutoff frequency.
+	 * @param sampleRate	Sampling rate.
+	 * @param taps			Number of filter taps, odd numbers give symmetric delay.
+	 * @param blockSize		Number of samples converted with one FFT, 0 to choose automatically.
+	 */
+	public FIRBandPassFilter(double low, double high, int sampleRate, int taps, int blockSize)
+	{
+		if(low < 0.0 || high <= low || high >= sampleRate / 2.0)
+		{
+			throw new IllegalArgumentException("Invalid cutoff frequencies");
+		}
+		if(taps < 1 || blockSize < 0)
+		{
+			throw new IllegalArgumentException("Number of taps and block size have to be positive");
+		}
+		
+		//FFT has to contain whole convolution of a block, blockSize + taps - 1 samples
+		if(blockSize == 0)
+		{
+			blockSize = IterativeFFT.getSize(2 * taps) - taps + 1;
+		}
+		this.taps = taps;
+		this.blockSize = blockSize;
+		this.plan = new FFTPlan(IterativeFFT.getSize(blockSize + taps - 1));
+		
+		double[][] response = getResponse(low, high, sampleRate, taps, plan);
+		this.hRe = response[0];
+		this.hIm = response[1];
+		
+		this.re = new double[plan.getSize()];
+		this.im = new double[plan.getSize()];
+		this.tail = new double[taps - 1];
+	}
+	
+	/**
+	 * Filters samples with default filter. Output is not delayed,
+	 * every frequency keeps its phase.
+	 *
+	 * @param input			Input samples.
+	 * @param low			Lower cutoff frequency.
+	 * @param high			Upper cutoff frequency.
+	 * @param sampleRate	Sampling rate.
+	 * @return				Returns filtered samples.
+	 */
+	public static double[] run(double[] input, double low, double high, int sampleRate)
+	{
+		FIRBandPassFilter filter = new FIRBandPassFilter(low, high, sampleRate);
+		final int delay = filter.getDelay();
+		
+		//Filtering input followed by zeros, then skipping delay
+		double[] padded = new double[input.length + delay];
+		System.arraycopy(input, 0, padded, 0, input.length);
+		double[] filtered = filter.process(padded);
+		
+		double[] output = new double[input.length];
+		System.arraycopy(filtered, delay, output, 0, input.length);
+		return output;
+	}
+	
+	/**
+	 * Filters next samples of a stream.
+	 * @param input		Input samples.
+	 * @return			Filtered samples, delayed by getDelay().
+	 */
+	public double[] process(double[] input)
+	{
+		double[] output = new double[input.length];
+		process(input, output);
+		return output;
+	}
+	
+	/**
+	 * Filters next samples of a stream, without creating any arrays.
+	 * @param input		Input samples.
+	 * @param output	Array for filtered samples, at least as long as input.
+	 */
+	public void process(double[] input, double[] output)
+	{
+		if(output.length < input.length)
+		{
+			throw new IllegalArgumentException("Output array is too small");
+		}
+		
+		final int N = plan.getSize();
+		for(int start=0; start<input.length; start+=blockSize)
+		{
+			final int c = Math.min(blockSize, input.length - start);
+			
+			//Block padded with zeros
+			System.arraycopy(input, start, re, 0, c);
+			for(int i=c; i<N; i++)
+			{
+				re[i] = 0.0;
+			}
+			for(int i=0; i<N; i++)
+			{
+				im[i] = 0.0;
+			}
+			
+			//Convolution of block with filter
+			plan.forward(re, im);
+			for(int k=0; k<N; k++)
+			{
+				double r = re[k]*hRe[k] - im[k]*hIm[k];
+				im[k] = re[k]*hIm[k] + im[k]*hRe[k];
+				re[k] = r;
+			}
+			plan.inverse(re, im);
+			
+			//Adding overlap of previous blocks
+			for(int i=0; i<c; i++)
+			{
+				output[start + i] = re[i] + ((i < tail.length) ? tail[i] : 0.0);
+			}
+			
+			//Keeping overlap for next blocks
+			for(int j=0; j<tail.length; j++)
+			{
+				tail[j] = re[c + j] + ((c + j < tail.length) ? tail[c + j] : 0.0);
+			}
+		}
+	}
+	
+	/**
+	 * Clears state, so that next samples are filtered as a new stream.
+	 */
+	public void reset()
+	{
+		for(int i=0; i<tail.length; i++)
+		{
+			tail[i] = 0.0;
+		}
+	}
+	
+	/**
+	 * @return	Delay of output in samples, (taps-1)/2.
+	 */
+	public int getDelay()
+	{
+		return (taps - 1) / 2;
+	}
+	
+	/**
+	 * @return	Number of samples converted with one FFT.
+	 */
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	/**
+	 * Returns frequency response of filter, calculating it
+	 * only when it isn't already cached.
+	 */
+	private static double[][] getResponse(double low, double high, int sampleRate, int taps, FFTPlan plan)
+	{
+		String key = low + ":" + high + ":" + sampleRate + ":" + taps + ":" + plan.getSize();
+		double[][] response = responses.get(key);
+		if(response == null)
+		{
+			double[] re = new double[plan.getSize()];
+			double[] im = new double[plan.getSize()];
+			System.arraycopy(design(low, high, sampleRate, taps), 0, re, 0, taps);
+			plan.forward(re, im);
+			response = new double[][] {re, im};
+			responses.putIfAbsent(key, response);
+		}
+		return response;
+	}
+	
+	/**
+	 * Designs windowed-sinc (Blackman window) band pass filter,
+	 * difference of two low pass filters, with unity gain
+	 * in the center of the band.
+	 *
+	 * @param low			Lower cutoff frequency.
+	 * @param high			Upper cutoff frequency.
+	 * @param sampleRate	Sampling rate.
+	 * @param taps			Number of taps.
+	 * @return				Filter taps.
+	 */
+	private static double[] design(double low, double high, int sampleRate, int taps)
+	{
+		final double fl = low / sampleRate;
+		final double fh = high / sampleRate;
+		final double center = (taps - 1) / 2.0;
+		final double width = Math.max(1, taps - 1);
+		
+		double[] h = new double[taps];
+		for(int n=0; n<taps; n++)
+		{
+			double x = n - center;
+			double sinc = (x == 0.0) ? 2.0 * (fh - fl)
+					: (Math.sin(2.0 * Math.PI * fh * x) - Math.sin(2.0 * Math.PI * fl * x)) / (Math.PI * x);
+			double window = 0.42 - 0.5 * Math.cos(2.0 * Math.PI * n / width) + 0.08 * Math.cos(4.0 * Math.PI * n / width);
+			h[n] = sinc * window;
+		}
+		
+		//Gain in the center of the band (geometric mean of cutoff frequencies)
+		final double w = 2.0 * Math.PI * Math.sqrt(Math.max(fl, 1e-9) * fh);
+		double gRe = 0.0;
+		double gIm = 0.0;
+		for(int n=0; n<taps; n++)
+		{
+			gRe += h[n] * Math.cos(w * n);
+			gIm -= h[n] * Math.sin(w * n);
+		}
+		final double gain = Math.hypot(gRe, gIm);
+		for(int n=0; n<taps; n++)
+		{
+			h[n] /= gain;
+		}
+		return h;
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * FixedPointBiquad.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.processing;
+import java.nio.ShortBuffer;
+
+/**
+ * FixedPointBiquad is a second order IIR filter section calculated
+ * only with integer arithmetic, for 16 bit PCM samples (Q15).
+ * Factories create the same filters as HighPassFilter and LowPassFilter.
+ *
+ * y[i] = a1*x[i] + a2*x[i-1] + a3*x[i-2] - b1*y[i-1] - b2*y[i-2]
+ *
+ * Q15 is not enough for coefficients: low pass filter at a few hundred Hz
+ * has a1 about 0.0003, which would be rounded to a few steps of Q15,
+ * and feedback coefficients are close to 2. So coefficients are kept
+ * with 29 fractional bits (range [-4,4)), and samples inside filter with
+ * 8 bits more than Q15, which also gives headroom for resonance.
+ * Products are accumulated in long, so nothing overflows for 32 bit samples.
+ *
+ * @author Krzysztof Pajk
+ */
+public class FixedPointBiquad
+{
+	//Fractional bits of coefficients
+	final static int coefficientBits = 29;
+	
+	/**
+	 * Bits added below Q15 to samples filtered with run(int[], int).
+	 */
+	public final static int guardBits = 8;
+	
+	//Coefficients in Q29
+	private final long a1;
+	private final long a2;
+	private final long a3;
+	private final long b1;
+	private final long b2;
+	
+	/**
+	 * Creates filter with given coefficients, rounded to fixed point.
+	 *
+	 * @param a1	Coefficient of x[i].
+	 * @param a2	Coefficient of x[i-1].
+	 * @param a3	Coefficient of x[i-2].
+	 * @param b1	Coefficient of y[i-1].
+	 * @param b2	Coefficient of y[i-2].
+	 */
+	public FixedPointBiquad(double a1, double a2, double a3, double b1, double b2)
+	{
+		this.a1 = quantize(a1);
+		this.a2 = quantize(a2);
+		this.a3 = quantize(a3);
+		this.b1 = quantize(b1);
+		this.b2 = quantize(b2);
+	}
+	
+	/**
+	 * Creates the same filter as HighPassFilter.
+	 *
+	 * @param f				Cutoff frequency.
+	 * @param r				Resonance amount.
+	 * @param sampleRate	Sampling rate.
+	 * @return				High pass filter.
+	 */
+	public static FixedPointBiquad highPass(double f, double r, int sampleRate)
+	{
+		final double c = Math.tan(Math.PI * f / sampleRate);
+		final double a1 = 1.0 / ( 1.0 + r * c + c * c);
+		return new FixedPointBiquad(a1, (-2.0) * a1, a1, 2.0 * (c*c - 1.0) * a1, (1.0 - r * c + c * c) * a1);
+	}
+	
+	/**
+	 * Creates the same filter as LowPassFilter. Arguments are in the same
+	 * order as of highPass(), not of LowPassFilter.run().
+	 *
+	 * @param f				Cutoff frequency.
+	 * @param r				Resonance amount.
+	 * @param sampleRate	Sampling rate.
+	 * @return				Low pass filter.
+	 */
+	public static FixedPointBiquad lowPass(double f, double r, int sampleRate)
+	{
+		final double c = 1.0 / Math.tan(Math.PI * f / sampleRate);
+		final double a1 = 1.0 / ( 1.0 + r * c + c * c);
+		return new FixedPointBiquad(a1, 2 * a1, a1, 2.0 * ( 1.0 - c*c) * a1, ( 1.0 - r * c + c * c) * a1);
+	}
+	
+	/**
+	 * Filters 16 bit samples. First two samples are copied,
+	 * like in HighPassFilter and LowPassFilter, output is saturated.
+	 * Input and output may be the same array.
+	 *
+	 * @param input		Input samples.
+	 * @param output	Array for filtered samples, at least as long as input.
+	 */
+	public void run(short[] input, short[] output)
+	{
+		final int length = input.length;
+		if(output.length < length)
+		{
+			throw new IllegalArgumentException("Output array is too small");
+		}
+		if(length < 2)
+		{
+			System.arraycopy(input, 0, output, 0, length);
+			return;
+		}
+		
+		int x2 = input[0] << guardBits, x1 = input[1] << guardBits;
+		int y2 = x2, y1 = x1;
+		output[0] = input[0];
+		output[1] = input[1];
+		for(int i=2; i<length; i++)
+		{
+			int x = input[i] << guardBits;
+			int y = step(x, x1, x2, y1, y2);
+			output[i] = toShort(y);
+			x2 = x1; x1 = x;
+			y2 = y1; y1 = y;
+		}
+	}
+	
+	/**
+	 * Filters 16 bit samples between position and limit of input,
+	 * writing them at the same positions of output. Positions
+	 * of buffers are not changed.
+	 *
+	 * @param input		Input samples.
+	 * @param output	Buffer for filtered samples.
+	 */
+	public void run(ShortBuffer input, ShortBuffer output)
+	{
+		final int start = input.position();
+		final int end = input.limit();
+		if(output.limit() < end)
+		{
+			throw new IllegalArgumentException("Output buffer is too small");
+		}
+		if(end - start < 2)
+		{
+			for(int i=start; i<end; i++)
+			{
+				output.put(i, input.get(i));
+			}
+			return;
+		}
+		
+		int x2 = input.get(start) << guardBits, x1 = input.get(start+1) << guardBits;
+		int y2 = x2, y1 = x1;
+		output.put(start, input.get(start));
+		output.put(start+1, input.get(start+1));
+		for(int i=start+2; i<end; i++)
+		{
+			int x = input.get(i) << guardBits;
+			int y = step(x, x1, x2, y1, y2);
+			output.put(i, toShort(y));
+			x2 = x1; x1 = x;
+			y2 = y1; y1 = y;
+		}
+	}
+	
+	/**
+	 * Filters samples in place, without rounding them back to Q15.
+	 * Used when filters are cascaded, samples should have
+	 * guardBits fractional bits below Q15 (or be scaled by
+	 * any power of 2 which leaves enough headroom).
+	 *
+	 * @param samples	Samples, modified in place.
+	 * @param length	Number of samples filtered.
+	 */
+	public void run(int[] samples, int length)
+	{
+		if(length < 2)
+		{
+			return;
+		}
+		int x2 = samples[0], x1 = samples[1];
+		int y2 = x2, y1 = x1;
+		for(int i=2; i<length; i++)
+		{
+			int x = samples[i];
+			int y = step(x, x1, x2, y1, y2);
+			samples[i] = y;
+			x2 = x1; x1 = x;
+			y2 = y1; y1 = y;
+		}
+	}
+	
+	/**
+	 * Calculates one output sample, rounded and saturated to int.
+	 */
+	private int step(int x, int x1, int x2, int y1, int y2)
+	{
+		long sum = a1 * x + a2 * x1 + a3 * x2 - b1 * y1 - b2 * y2;
+		long y = (sum + (1L << (coefficientBits - 1))) >> coefficientBits;
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, y));
+	}
+	
+	/**
+	 * Rounds sample with guard bits to saturated 16 bit sample.
+	 */
+	private static short toShort(int y)
+	{
+		int s = (y + (1 << (guardBits - 1))) >> guardBits;
+		return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, s));
+	}
+	
+	/**
+	 * Rounds coefficient to Q29.
+	 */
+	private static long quantize(double c)
+	{
+		if(Math.abs(c) >= (1 << (31 - coefficientBits)))
+		{
+			throw new IllegalArgumentException("Coefficient " + c + " is out of range of fixed point filter");
+		}
+		return Math.round(c * (1L << coefficientBits));
+	}
+}
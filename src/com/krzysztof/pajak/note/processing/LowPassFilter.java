@@ -5,6 +5,9 @@
  */
 
 package com.krzysztof.pajak.note.processing;
+import java.nio.DoubleBuffer;
+
+import com.krzysztof.pajak.note.tools.OffHeapBuffer;
 
 /**
  * Implementation of low pass filter, type biquad / butterworth.
@@ -22,8 +25,8 @@ public class LowPassFilter
 	 * called cutoff frequency.
 	 *
 	 * @param input			Input samples.
-	 * @param f				Cutoff frequency.
 	 * @param r				Resonance amount.
+	 * @param f				Cutoff frequency.
 	 * @param sampleRate	Sampling rate.
 	 * @return				Returns filtered samples.
 	 *
@@ -51,4 +54,43 @@ public class LowPassFilter
 		
 		return output;
 	}
+	
+	/**
+	 * This method removes frequencies above certain frequency
+	 * called cutoff frequency, operating directly on buffers
+	 * outside of the heap.
+	 *
+	 * @param input			Input samples.
+	 * @param output		Buffer for filtered samples, at least as long as input.
+	 * @param r				Resonance amount.
+	 * @param f				Cutoff frequency.
+	 * @param sampleRate	Sampling rate.
+	 */
+	public static void run(OffHeapBuffer input, OffHeapBuffer output, double r, double f, int sampleRate)
+	{
+		final double c = 1.0 / Math.tan(Math.PI * f / sampleRate);
+		
+		final double a1 = 1.0 / ( 1.0 + r * c + c * c);
+		final double a2 = 2* a1;
+		final double a3 = a1;
+		final double b1 = 2.0 * ( 1.0 - c*c) * a1;
+		final double b2 = ( 1.0 - r * c + c * c) * a1;
+		
+		DoubleBuffer in = input.buffer();
+		DoubleBuffer out = output.buffer();
+		final int length = input.length();
+		
+		double x1 = in.get(1), x2 = in.get(0);
+		double y1 = x1, y2 = x2;
+		out.put(0, y2);
+		out.put(1, y1);
+		for(int i=2; i<length; i++)
+		{
+			double x = in.get(i);
+			double y = a1 * x + a2 * x1 + a3 * x2 - b1*y1 - b2*y2;
+			out.put(i, y);
+			x2 = x1; x1 = x;
+			y2 = y1; y1 = y;
+		}
+	}
 }
@@ -0,0 +1,211 @@
+/**
+ * OnsetGate.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.processing;
+import com.krzysztof.pajak.note.detect.NoteDetect;
+
+/**
+ * OnsetGate is a cheap stage deciding whether a frame of a stream
+ * contains anything new, so that expensive processing (filters, FFT,
+ * estimation) can be skipped for frames with silence or sustained sound.
+ *
+ * Stream is passed in hops, blocks of new samples. Frame consists of
+ * last few hops. For every hop gate calculates (in a single pass)
+ * its sum of amplitudes, energy and number of zero crossings, then:
+ * - average amplitude of whole frame is updated incrementally, and if it is
+ *   below silence threshold, frame is considered silent (the same measure
+ *   and threshold as of NoteDetect, so gate skips the same frames),
+ * - sudden change of energy or zero crossing rate (which follows
+ *   pitch) compared with recent hops is considered an onset.
+ *
+ * After an onset frame is considered changed until all of its hops
+ * are replaced with samples played after the onset.
+ *
+ * @author Krzysztof Pajk
+ */
+public class OnsetGate
+{
+	/**
+	 * States returned by update method.
+	 */
+	public enum State
+	{
+		//Frame is too quiet to contain notes
+		SILENCE,
+		//Frame contains the same sound as previous one
+		SUSTAIN,
+		//Frame contains new sound and has to be processed
+		ONSET
+	}
+	
+	//Default average amplitude below which frame is considered silent
+	final static double defaultSilenceThreshold = NoteDetect.silenceTreshold;
+	
+	//Default energy ratio (in either direction) considered an onset
+	final static double defaultEnergyRatio = 2.0;
+	
+	//Default relative change of zero crossing rate considered an onset
+	final static double defaultCrossingChange = 0.25;
+	
+	//Smoothing factor of energy and zero crossing rate followers
+	final static double smoothing = 0.5;
+	
+	private final double silenceThreshold;
+	private final double energyRatio;
+	private final double crossingChange;
+	
+	//Sum of amplitudes and length of every hop in current frame
+	private final double[] hopAmplitude;
+	private final int[] hopLength;
+	private int position = 0;
+	
+	//Sum of amplitudes and number of samples in current frame
+	private double frameAmplitude = 0.0;
+	private int frameLength = 0;
+	
+	//Smoothed energy per sample and zero crossing rate of previous hops
+	private double energyFollower = 0.0;
+	private double crossingFollower = 0.0;
+	
+	//Last sample of previous hop, used for counting zero crossings
+	private double lastSample = 0.0;
+	
+	//Number of hops that still contain sound from before the last onset
+	private int pending = 0;
+	
+	//True if previous frame was silent
+	private boolean silent = true;
+	
+	/**
+	 * Class constructor specifying frame length in hops.
+	 * Default thresholds are used.
+	 *
+	 * @param hopsPerFrame	Number of hops in one frame.
+	 */
+	public OnsetGate(int hopsPerFrame)
+	{
+		this(hopsPerFrame, defaultSilenceThreshold, defaultEnergyRatio, defaultCrossingChange);
+	}
+	
+	/**
+	 * Class constructor specifying frame length in hops and thresholds.
+	 *
+	 * @param hopsPerFrame		Number of hops in one frame.
+	 * @param silenceThreshold	Average amplitude of frame below which it is considered silent.
+	 * @param energyRatio		Ratio of energy (greater than 1.0) between hop and previous hops considered an onset.
+	 * @param crossingChange	Relative change of zero crossing rate considered an onset.
+	 */
+	public OnsetGate(int hopsPerFrame, double silenceThreshold, double energyRatio, double crossingChange)
+	{
+		if(hopsPerFrame < 1)
+		{
+			throw new IllegalArgumentException("Frame has to contain at least one hop");
+		}
+		
+		this.hopAmplitude = new double[hopsPerFrame];
+		this.hopLength = new int[hopsPerFrame];
+		this.silenceThreshold = silenceThreshold;
+		this.energyRatio = energyRatio;
+		this.crossingChange = crossingChange;
+	}
+	
+	/**
+	 * Passes new hop to the gate and returns state of frame
+	 * ending with this hop.
+	 *
+	 * @param hop	New samples in time domain.
+	 * @return		State of current frame.
+	 */
+	public State update(double[] hop)
+	{
+		//Amplitudes, energy and zero crossings in a single pass
+		double amplitude = 0.0;
+		double energy = 0.0;
+		int crossings = 0;
+		double previous = lastSample;
+		for(int i=0; i<hop.length; i++)
+		{
+			double x = hop[i];
+			amplitude += Math.abs(x);
+			energy += x * x;
+			if((x < 0.0) != (previous < 0.0))
+			{
+				crossings++;
+			}
+			previous = x;
+		}
+		lastSample = previous;
+		
+		//Incremental average amplitude of frame
+		frameAmplitude += amplitude - hopAmplitude[position];
+		frameLength += hop.length - hopLength[position];
+		hopAmplitude[position] = amplitude;
+		hopLength[position] = hop.length;
+		position = (position + 1) % hopAmplitude.length;
+		
+		double average = Math.max(0.0, frameAmplitude) / Math.max(1, frameLength);
+		if(average < silenceThreshold)
+		{
+			silent = true;
+			pending = 0;
+			return State.SILENCE;
+		}
+		
+		//Comparing hop with previous ones
+		double meanEnergy = energy / Math.max(1, hop.length);
+		double crossingRate = (double) crossings / Math.max(1, hop.length);
+		
+		boolean onset = silent;
+		if(!onset)
+		{
+			onset = meanEnergy > energyFollower * energyRatio
+				|| meanEnergy * energyRatio < energyFollower
+				|| Math.abs(crossingRate - crossingFollower) > crossingFollower * crossingChange;
+		}
+		
+		if(silent)
+		{
+			energyFollower = meanEnergy;
+			crossingFollower = crossingRate;
+		}
+		else
+		{
+			energyFollower += smoothing * (meanEnergy - energyFollower);
+			crossingFollower += smoothing * (crossingRate - crossingFollower);
+		}
+		silent = false;
+		
+		if(onset)
+		{
+			pending = hopAmplitude.length;
+		}
+		if(pending > 0)
+		{
+			pending--;
+			return State.ONSET;
+		}
+		return State.SUSTAIN;
+	}
+	
+	/**
+	 * Clears state of the gate.
+	 */
+	public void reset()
+	{
+		for(int i=0; i<hopAmplitude.length; i++)
+		{
+			hopAmplitude[i] = 0.0;
+			hopLength[i] = 0;
+		}
+		position = 0;
+		frameAmplitude = 0.0;
+		frameLength = 0;
+		energyFollower = 0.0;
+		crossingFollower = 0.0;
+		lastSample = 0.0;
+		pending = 0;
+		silent = true;
+	}
+}
@@ -0,0 +1,399 @@
+/**
+ * DetectService.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.service;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import com.krzysztof.pajak.note.algorithms.IterativeFFT;
+import com.krzysztof.pajak.note.detect.CompiledProfile;
+import com.krzysztof.pajak.note.detect.DetectorProfile;
+import com.krzysztof.pajak.note.detect.NoteDetect;
+import com.krzysztof.pajak.note.detect.NoteEstimate;
+
+/**
+ * DetectService answers note detection requests over HTTP,
+ * with HTTP server of JDK (com.sun.net.httpserver), without dependencies.
+ *
+ * Every request is handled by its own virtual thread when runtime
+ * supports them (Java 21 and later, found by reflection), otherwise
+ * by a cached thread pool. Samples of request are filtered in its thread,
+ * then transforms of concurrent requests with the same size of frame
+ * are coalesced into batches (FrameBatcher) and notes are estimated
+ * from magnitudes in their own resolution. Filters and estimation are
+ * those of DetectorProfile.DEFAULT, so answers are the same as of NoteDetect
+ * in power spectrum mode, which reads spectrum in its own resolution too.
+ *
+ * Admission control: at most maxConcurrent requests are processed
+ * at the same time, next ones are rejected immediately with status 503,
+ * so overloaded service answers quickly instead of queueing without limit.
+ * Requests with more than maxSamples samples are rejected with status 413.
+ *
+ * Endpoints:
+ *  POST /detect?rate=R&tolerance=T		body: mono 16 bit signed little endian PCM,
+ *  									answer: {"mask":M,"notes":["C","E","G"]},
+ *  									mask 0 for silence, -1 for noise,
+ *  									R is one of supportedSampleRates, default 44100
+ *  GET /stats							counters of throughput and latency, "name value" lines
+ *
+ * Usage: DetectService [options]
+ *  -port N				listening port, default 8080
+ *  -window N			time window of batch in milliseconds, default 2
+ *  -batch N			maximum frames in batch, default 64
+ *  -concurrency N		maximum requests processed at once, default 256
+ *  -samples N			maximum samples in request, default 1048576
+ *
+ * @author Krzysztof Pajk
+ */
+public class DetectService
+{
+	//Default sampling rate of requests
+	final static int defaultSampleRate = 44100;
+	
+	//Sampling rates accepted in requests, so that only a few profiles are compiled
+	final static int[] supportedSampleRates = {8000, 11025, 16000, 22050, 32000, 44100, 48000, 88200, 96000};
+	
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final FrameBatcher batcher;
+	private final ServiceStats stats = new ServiceStats();
+	
+	private final Semaphore admission;
+	private final int maxSamples;
+	
+	//Default profile compiled for every supported sampling rate and size of frame,
+	//size is a power of two below twice maxSamples, so there are only a few of them
+	private final HashMap<Long, CompiledProfile> profiles = new HashMap<Long, CompiledProfile>();
+	
+	/**
+	 * Creates service, which starts after start().
+	 *
+	 * @param port				Listening port.
+	 * @param windowMillis		Time window of batch in milliseconds.
+	 * @param maxBatch			Maximum number of frames in batch.
+	 * @param maxConcurrent		Maximum number of requests processed at once.
+	 * @param maxSamples		Maximum number of samples in request.
+	 * @throws IOException
+	 */
+	public DetectService(int port, double windowMillis, int maxBatch, int maxConcurrent, int maxSamples) throws IOException
+	{
+		this.batcher = new FrameBatcher((long) (windowMillis * 1e6), maxBatch, stats);
+		this.admission = new Semaphore(maxConcurrent);
+		this.maxSamples = maxSamples;
+		this.executor = createExecutor();
+		
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.setExecutor(executor);
+		server.createContext("/detect", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				detect(exchange);
+			}
+		});
+		server.createContext("/stats", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				send(exchange, 200, "text/plain", stats.report());
+			}
+		});
+	}
+	
+	/**
+	 * Creates executor with virtual thread per task, if runtime
+	 * supports it, otherwise cached thread pool.
+	 */
+	static ExecutorService createExecutor()
+	{
+		try
+		{
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool();
+		}
+	}
+	
+	/**
+	 * Starts answering requests.
+	 */
+	public void start()
+	{
+		server.start();
+	}
+	
+	/**
+	 * Stops service, waiting at most given time for requests being processed.
+	 * @param seconds	Time to wait.
+	 */
+	public void stop(int seconds)
+	{
+		server.stop(seconds);
+		executor.shutdown();
+	}
+	
+	/**
+	 * @return	Port on which service listens.
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * @return	Counters as lines "name value", the same as GET /stats.
+	 */
+	public String getStats()
+	{
+		return stats.report();
+	}
+	
+	/**
+	 * Handles POST /detect.
+	 */
+	private void detect(HttpExchange exchange) throws IOException
+	{
+		final long start = System.nanoTime();
+		if(!"POST".equals(exchange.getRequestMethod()))
+		{
+			send(exchange, 405, "text/plain", "POST required\n");
+			return;
+		}
+		if(!admission.tryAcquire())
+		{
+			stats.rejected.increment();
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			send(exchange, 503, "text/plain", "Service overloaded\n");
+			return;
+		}
+		
+		try
+		{
+			HashMap<String, String> query = parseQuery(exchange.getRequestURI());
+			final int sampleRate = query.containsKey("rate") ? Integer.parseInt(query.get("rate")) : defaultSampleRate;
+			final double tolerance = query.containsKey("tolerance") ? Double.parseDouble(query.get("tolerance")) : NoteEstimate.getDefaultTolerance();
+			if(!isSupported(sampleRate))
+			{
+				throw new IllegalArgumentException("Unsupported sampling rate");
+			}
+			
+			byte[] body = readBody(exchange.getRequestBody(), 2L * maxSamples);
+			if(body == null)
+			{
+				send(exchange, 413, "text/plain", "Too many samples\n");
+				return;
+			}
+			final int length = body.length / 2;
+			if(length < 2)
+			{
+				throw new IllegalArgumentException("No samples given as an input");
+			}
+			
+			final int mask = estimate(body, length, sampleRate, tolerance);
+			StringBuilder json = new StringBuilder("{\"mask\":").append(mask).append(",\"notes\":[");
+			String[] notes = (mask == 0) ? new String[0] : NoteEstimate.maskToNotes(mask);
+			for(int i=0; notes != null && i<notes.length; i++)
+			{
+				json.append((i > 0) ? "," : "").append('"').append(notes[i]).append('"');
+			}
+			json.append("]}\n");
+			send(exchange, 200, "application/json", json.toString());
+			stats.request(System.nanoTime() - start);
+		}
+		catch(IllegalArgumentException e)
+		{
+			stats.errors.increment();
+			send(exchange, 400, "text/plain", e.getMessage() + "\n");
+		}
+		catch(InterruptedException e)
+		{
+			stats.errors.increment();
+			send(exchange, 500, "text/plain", "Interrupted\n");
+			Thread.currentThread().interrupt();
+		}
+		catch(RuntimeException e)
+		{
+			stats.errors.increment();
+			send(exchange, 500, "text/plain", e + "\n");
+		}
+		finally
+		{
+			admission.release();
+		}
+	}
+	
+	/**
+	 * @return	True if sampling rate is one of supportedSampleRates.
+	 */
+	static boolean isSupported(int sampleRate)
+	{
+		for(int i=0; i<supportedSampleRates.length; i++)
+		{
+			if(supportedSampleRates[i] == sampleRate)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Filters samples, transforms them in batch and estimates notes.
+	 */
+	private int estimate(byte[] body, int length, int sampleRate, double tolerance) throws InterruptedException
+	{
+		final int N = IterativeFFT.getSize(length);
+		double[] samples = new double[N];
+		ByteBuffer pcm = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+		double sum = 0.0;
+		for(int i=0; i<length; i++)
+		{
+			samples[i] = pcm.getShort(2*i) / 32768.0;
+			sum += Math.abs(samples[i]);
+		}
+		if(sum / length < NoteDetect.silenceTreshold)
+		{
+			return 0;
+		}
+		
+		CompiledProfile profile = getProfile(sampleRate, N);
+		profile.filter(samples, length);
+		
+		FrameBatcher.Frame frame = new FrameBatcher.Frame(samples, Math.max(1, profile.getUsedBins()));
+		batcher.transform(frame);
+		if(frame.magnitudes == null)
+		{
+			throw new IllegalStateException("Transform of batch failed");
+		}
+		return profile.getNotesMask(frame.magnitudes, false, tolerance, new double[12]);
+	}
+	
+	/**
+	 * Returns default profile compiled for sampling rate and size of frame.
+	 * Transform is calculated by FrameBatcher, so profile has no FFT plan.
+	 */
+	private CompiledProfile getProfile(int sampleRate, int N)
+	{
+		final long key = ((long) sampleRate << 32) | N;
+		synchronized(profiles)
+		{
+			CompiledProfile profile = profiles.get(key);
+			if(profile == null)
+			{
+				profile = DetectorProfile.DEFAULT.compile(sampleRate, (double) sampleRate / N, N/2 + 1);
+				profiles.put(key, profile);
+			}
+			return profile;
+		}
+	}
+	
+	/**
+	 * Reads body of request.
+	 * @return	Bytes of body, null if it is longer than limit.
+	 */
+	private static byte[] readBody(InputStream input, long limit) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[16384];
+		int n;
+		while((n = input.read(buffer)) > 0)
+		{
+			bytes.write(buffer, 0, n);
+			if(bytes.size() > limit)
+			{
+				return null;
+			}
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Parses parameters of query, "a=1&b=2".
+	 */
+	private static HashMap<String, String> parseQuery(URI uri)
+	{
+		HashMap<String, String> query = new HashMap<String, String>();
+		String raw = uri.getRawQuery();
+		if(raw != null)
+		{
+			for(String pair : raw.split("&"))
+			{
+				int i = pair.indexOf('=');
+				if(i > 0)
+				{
+					query.put(pair.substring(0, i), pair.substring(i + 1));
+				}
+			}
+		}
+		return query;
+	}
+	
+	/**
+	 * Sends whole answer and closes exchange.
+	 */
+	private static void send(HttpExchange exchange, int status, String type, String body) throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try
+		{
+			out.write(bytes);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	public static void main(String[] args) throws Exception
+	{
+		int port = 8080;
+		double window = 2.0;
+		int batch = 64;
+		int concurrency = 256;
+		int samples = 1 << 20;
+		
+		for(int i=0; i+1<args.length; i+=2)
+		{
+			String value = args[i+1];
+			switch(args[i])
+			{
+				case "-port": port = Integer.parseInt(value); break;
+				case "-window": window = Double.parseDouble(value); break;
+				case "-batch": batch = Integer.parseInt(value); break;
+				case "-concurrency": concurrency = Integer.parseInt(value); break;
+				case "-samples": samples = Integer.parseInt(value); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		
+		DetectService service = new DetectService(port, window, batch, concurrency, samples);
+		service.start();
+		System.err.println("Detect service listening on port " + service.getPort());
+	}
+}
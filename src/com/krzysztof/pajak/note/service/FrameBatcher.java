@@ -0,0 +1,209 @@
+/**
+ * FrameBatcher.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.service;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.krzysztof.pajak.note.algorithms.BatchFFT;
+
+/**
+ * FrameBatcher coalesces frames submitted concurrently by many
+ * request threads into batches transformed by one BatchFFT call.
+ *
+ * Frames are grouped by size of transform. The first frame of an empty
+ * group makes its thread the leader of the batch: leader waits until
+ * time window passes or batch is full, takes every frame of the group,
+ * transforms them and wakes their threads. Other threads only wait
+ * for their results. So batching doesn't need any extra threads,
+ * and a single request is delayed at most by the window.
+ *
+ * Locks from java.util.concurrent are used instead of synchronized,
+ * so waiting doesn't pin carrier threads of virtual threads.
+ *
+ * @author Krzysztof Pajk
+ */
+class FrameBatcher
+{
+	/**
+	 * Frame waiting for transform.
+	 */
+	static class Frame
+	{
+		//Samples padded to size of transform, and magnitudes of the first bins after transform
+		final double[] samples;
+		final int bins;
+		double[] magnitudes;
+		boolean done = false;
+		
+		Frame(double[] samples, int bins)
+		{
+			this.samples = samples;
+			this.bins = bins;
+		}
+	}
+	
+	/**
+	 * Frames of one size of transform.
+	 */
+	private static class Group
+	{
+		final ArrayList<Frame> pending = new ArrayList<Frame>();
+		final ReentrantLock lock = new ReentrantLock();
+		final Condition full = lock.newCondition();
+		final Condition finished = lock.newCondition();
+	}
+	
+	private final long window;
+	private final int maxBatch;
+	private final ServiceStats stats;
+	
+	private final ConcurrentHashMap<Integer, Group> groups = new ConcurrentHashMap<Integer, Group>();
+	
+	//Transforms not used by any batch, BatchFFT is not thread safe
+	private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<BatchFFT>> transforms = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<BatchFFT>>();
+	
+	/**
+	 * @param window	Time window of a batch, in nanoseconds.
+	 * @param maxBatch	Maximum number of frames in a batch.
+	 * @param stats		Counters of batches.
+	 */
+	FrameBatcher(long window, int maxBatch, ServiceStats stats)
+	{
+		this.window = window;
+		this.maxBatch = maxBatch;
+		this.stats = stats;
+	}
+	
+	/**
+	 * Transforms frame together with frames of the same size
+	 * submitted by other threads in the same time window.
+	 * Thread leading the batch always transforms it, if it is interrupted
+	 * it only stops waiting for more frames and keeps the interrupt status.
+	 *
+	 * @param frame		Frame, its length is a power of 2.
+	 * @throws InterruptedException
+	 */
+	void transform(Frame frame) throws InterruptedException
+	{
+		final int N = frame.samples.length;
+		Group group = groups.get(N);
+		if(group == null)
+		{
+			groups.putIfAbsent(N, new Group());
+			group = groups.get(N);
+		}
+		
+		ArrayList<Frame> batch;
+		boolean interrupted = false;
+		group.lock.lock();
+		try
+		{
+			group.pending.add(frame);
+			if(group.pending.size() > 1)
+			{
+				//Batch has a leader already
+				if(group.pending.size() >= maxBatch)
+				{
+					group.full.signal();
+				}
+				while(!frame.done)
+				{
+					group.finished.await();
+				}
+				return;
+			}
+			
+			//Leading the batch, interrupted leader stops waiting but still runs the batch,
+			//because other threads wait for their frames
+			long remaining = window;
+			try
+			{
+				while(group.pending.size() < maxBatch && remaining > 0)
+				{
+					remaining = group.full.awaitNanos(remaining);
+				}
+			}
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+			batch = new ArrayList<Frame>(group.pending);
+			group.pending.clear();
+		}
+		finally
+		{
+			group.lock.unlock();
+		}
+		
+		try
+		{
+			run(N, batch);
+		}
+		finally
+		{
+			group.lock.lock();
+			try
+			{
+				for(Frame f : batch)
+				{
+					f.done = true;
+				}
+				group.finished.signalAll();
+			}
+			finally
+			{
+				group.lock.unlock();
+			}
+			if(interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Transforms batch of frames with one call of BatchFFT.
+	 */
+	private void run(int N, ArrayList<Frame> batch)
+	{
+		ConcurrentLinkedQueue<BatchFFT> free = transforms.get(N);
+		if(free == null)
+		{
+			transforms.putIfAbsent(N, new ConcurrentLinkedQueue<BatchFFT>());
+			free = transforms.get(N);
+		}
+		BatchFFT fft = free.poll();
+		if(fft == null)
+		{
+			fft = new BatchFFT(N);
+		}
+		
+		//Frames one after another, magnitudes of as many bins as any frame needs
+		final int count = batch.size();
+		int bins = 1;
+		double[] frames = new double[count * N];
+		for(int m=0; m<count; m++)
+		{
+			System.arraycopy(batch.get(m).samples, 0, frames, m * N, N);
+			bins = Math.max(bins, batch.get(m).bins);
+		}
+		double[] magnitudes = new double[count * bins];
+		fft.run(frames, count, magnitudes, bins);
+		free.add(fft);
+		
+		for(int m=0; m<count; m++)
+		{
+			Frame frame = batch.get(m);
+			frame.magnitudes = new double[frame.bins];
+			System.arraycopy(magnitudes, m * bins, frame.magnitudes, 0, frame.bins);
+		}
+		stats.batch(count);
+	}
+}
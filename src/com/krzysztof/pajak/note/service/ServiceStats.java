@@ -0,0 +1,121 @@
+/**
+ * ServiceStats.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.service;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ServiceStats counts requests, batches and latencies of DetectService.
+ * Counters are updated by many threads without locks.
+ *
+ * Latencies are counted in a histogram with four buckets per power of 2
+ * microseconds, so percentiles are accurate to about 20%,
+ * with constant memory.
+ *
+ * @author Krzysztof Pajk
+ */
+class ServiceStats
+{
+	//Buckets per power of 2 and number of buckets (up to 2^40 microseconds)
+	final static int subBuckets = 4;
+	final static int buckets = 41 * subBuckets;
+	
+	private final long start = System.nanoTime();
+	
+	final LongAdder requests = new LongAdder();
+	final LongAdder rejected = new LongAdder();
+	final LongAdder errors = new LongAdder();
+	final LongAdder batches = new LongAdder();
+	final LongAdder batchedFrames = new LongAdder();
+	
+	private final AtomicLongArray latencies = new AtomicLongArray(buckets);
+	
+	/**
+	 * Counts finished request.
+	 * @param nanos		Latency of request.
+	 */
+	void request(long nanos)
+	{
+		requests.increment();
+		latencies.incrementAndGet(bucket(Math.max(1, nanos / 1000)));
+	}
+	
+	/**
+	 * Counts transformed batch.
+	 * @param frames	Number of frames in batch.
+	 */
+	void batch(int frames)
+	{
+		batches.increment();
+		batchedFrames.add(frames);
+	}
+	
+	/**
+	 * Index of bucket of latency in microseconds.
+	 */
+	private static int bucket(long micros)
+	{
+		final int octave = 63 - Long.numberOfLeadingZeros(micros);
+		final int sub = (octave >= 2) ? (int) ((micros >> (octave - 2)) & (subBuckets - 1)) : 0;
+		return Math.min(buckets - 1, octave * subBuckets + sub);
+	}
+	
+	/**
+	 * Upper bound of bucket in microseconds.
+	 */
+	private static double upperBound(int bucket)
+	{
+		final int octave = bucket / subBuckets;
+		final int sub = bucket % subBuckets;
+		return Math.pow(2, octave) * (1.0 + (sub + 1.0) / subBuckets);
+	}
+	
+	/**
+	 * Latency below which given fraction of requests finished.
+	 * @param fraction	Fraction of requests, for example 0.99.
+	 * @return			Latency in milliseconds, 0 if there were no requests.
+	 */
+	double percentile(double fraction)
+	{
+		long total = 0;
+		for(int i=0; i<buckets; i++)
+		{
+			total += latencies.get(i);
+		}
+		long count = 0;
+		for(int i=0; i<buckets; i++)
+		{
+			count += latencies.get(i);
+			if(count > 0 && count >= fraction * total)
+			{
+				return upperBound(i) / 1000.0;
+			}
+		}
+		return 0.0;
+	}
+	
+	/**
+	 * @return	Counters as lines "name value".
+	 */
+	String report()
+	{
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		final long frames = batchedFrames.sum();
+		final long count = batches.sum();
+		StringBuilder s = new StringBuilder();
+		s.append(String.format(Locale.ROOT, "uptime_seconds %.1f%n", seconds));
+		s.append(String.format(Locale.ROOT, "requests %d%n", requests.sum()));
+		s.append(String.format(Locale.ROOT, "rejected %d%n", rejected.sum()));
+		s.append(String.format(Locale.ROOT, "errors %d%n", errors.sum()));
+		s.append(String.format(Locale.ROOT, "requests_per_second %.2f%n", requests.sum() / Math.max(seconds, 1e-9)));
+		s.append(String.format(Locale.ROOT, "batches %d%n", count));
+		s.append(String.format(Locale.ROOT, "frames_per_batch %.2f%n", (count == 0) ? 0.0 : (double) frames / count));
+		s.append(String.format(Locale.ROOT, "latency_p50_ms %.3f%n", percentile(0.5)));
+		s.append(String.format(Locale.ROOT, "latency_p99_ms %.3f%n", percentile(0.99)));
+		return s.toString();
+	}
+}
@@ -4,6 +4,7 @@
  */
 
 package com.krzysztof.pajak.note.tools;
+import java.nio.DoubleBuffer;
 
 /**
  * ArrayMethods contains few functions that are being
@@ -89,4 +90,83 @@ public class ArrayMethods
 		
 		return output;
 	}
+	
+	/**
+	 * Converting complex array to power spectrum.
+	 * Values in double array are squared abs of complex values,
+	 * re^2 + im^2, calculated without square root.
+	 * @param input		Complex array
+	 * @return			Double array
+	 */
+	public static double[] complexToPower(Complex[] input)
+	{
+		int length = input.length;
+		double[] output = new double[length];
+		
+		for(int i=0; i<length; i++)
+		{
+			double re = input[i].re();
+			double im = input[i].im();
+			output[i] = re*re + im*im;
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Converting power spectrum to abs values, only in given range of bins.
+	 * @param power		Squared abs values
+	 * @param start		The first bin
+	 * @param end		Bin after the last one
+	 * @return			Abs values of bins [start, end)
+	 */
+	public static double[] powerToDouble(double[] power, int start, int end)
+	{
+		double[] output = new double[end - start];
+		for(int i=start; i<end; i++)
+		{
+			output[i - start] = Math.sqrt(power[i]);
+		}
+		return output;
+	}
+	
+	/**
+	 * Converting complex numbers stored as interleaved real
+	 * and imaginary parts to their squared abs values,
+	 * operating directly on buffers outside of the heap.
+	 * @param input		Buffer with 2*n values, n complex numbers
+	 * @param output	Buffer for n squared abs values
+	 */
+	public static void complexToPower(OffHeapBuffer input, OffHeapBuffer output)
+	{
+		DoubleBuffer in = input.buffer();
+		DoubleBuffer out = output.buffer();
+		final int length = Math.min(input.length()/2, output.length());
+		
+		for(int i=0; i<length; i++)
+		{
+			double re = in.get(2*i);
+			double im = in.get(2*i+1);
+			out.put(i, re*re + im*im);
+		}
+	}
+	
+	/**
+	 * Converting complex numbers stored as interleaved real
+	 * and imaginary parts to their abs values, operating directly
+	 * on buffers outside of the heap.
+	 * @param input		Buffer with 2*n values, n complex numbers
+	 * @param output	Buffer for n abs values
+	 */
+	public static void complexToDouble(OffHeapBuffer input, OffHeapBuffer output)
+	{
+		DoubleBuffer in = input.buffer();
+		DoubleBuffer out = output.buffer();
+		final int length = Math.min(input.length()/2, output.length());
+		
+		for(int i=0; i<length; i++)
+		{
+			out.put(i, Math.hypot(in.get(2*i), in.get(2*i+1)));
+		}
+	}
 }
@@ -0,0 +1,177 @@
+/**
+ * BufferArena.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.tools;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * BufferArena allocates OffHeapBuffers in large blocks of memory
+ * outside of the Java heap and controls their lifetime explicitly.
+ *
+ * Buffers are carved sequentially from blocks. Method reset() releases
+ * every buffer at once, but keeps the blocks, so the same memory is used
+ * again by next job (for example next clip of a batch). Memory used by
+ * an arena is therefore bounded by the largest job, while arena is open.
+ * Method close() only drops references to blocks: Java 8 has no public API
+ * freeing a direct buffer, so memory is returned to the system when garbage
+ * collector collects the blocks and every buffer sliced from them. Freeing
+ * it explicitly would leave buffers still referenced pointing to freed memory.
+ * Total memory of blocks waiting for collection is limited by
+ * -XX:MaxDirectMemorySize, so an arena should rather be reset and reused
+ * than closed and created again for every job.
+ *
+ * Arena is not thread safe, every thread should use its own arena.
+ *
+ * @author Krzysztof Pajk
+ */
+public class BufferArena implements AutoCloseable
+{
+	//Default size of a block of memory, in doubles (8 MB)
+	final static int defaultBlockSize = 1 << 20;
+	
+	//Size of new blocks, in doubles
+	private final int blockSize;
+	
+	//Allocated blocks and index of block currently used
+	private final ArrayList<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+	private int current = 0;
+	
+	//Offset of free memory in current block, in bytes
+	private int offset = 0;
+	
+	//Incremented on every reset, buffers from older generations are invalid
+	private long generation = 0;
+	private boolean closed = false;
+	
+	/**
+	 * Creates arena with default block size.
+	 */
+	public BufferArena()
+	{
+		this(defaultBlockSize);
+	}
+	
+	/**
+	 * Creates arena with given block size.
+	 * Buffers larger than block size get a block of their own.
+	 *
+	 * @param blockSize		Size of a block of memory, in doubles.
+	 */
+	public BufferArena(int blockSize)
+	{
+		if(blockSize < 1 || blockSize > Integer.MAX_VALUE / 8)
+		{
+			throw new IllegalArgumentException("Invalid block size");
+		}
+		this.blockSize = blockSize;
+	}
+	
+	/**
+	 * Allocates buffer of given length, filled with zeros.
+	 *
+	 * @param length	Number of doubles.
+	 * @return			New buffer valid until reset() or close().
+	 */
+	public OffHeapBuffer allocate(int length)
+	{
+		if(closed)
+		{
+			throw new IllegalStateException("Arena is closed");
+		}
+		if(length < 0 || length > Integer.MAX_VALUE / 8)
+		{
+			throw new IllegalArgumentException("Invalid buffer length");
+		}
+		
+		final int bytes = length * 8;
+		
+		//Finding block with enough free memory
+		while(current < blocks.size() && blocks.get(current).capacity() - offset < bytes)
+		{
+			current++;
+			offset = 0;
+		}
+		if(current == blocks.size())
+		{
+			blocks.add(ByteBuffer.allocateDirect(Math.max(bytes, blockSize * 8)).order(ByteOrder.nativeOrder()));
+			offset = 0;
+		}
+		
+		ByteBuffer block = blocks.get(current).duplicate();
+		block.limit(offset + bytes);
+		block.position(offset);
+		ByteBuffer slice = block.slice().order(ByteOrder.nativeOrder());
+		offset += bytes;
+		
+		//Memory may have been used by previous generation
+		for(int i=0; i<bytes; i+=8)
+		{
+			slice.putLong(i, 0L);
+		}
+		
+		return new OffHeapBuffer(this, generation, slice.asDoubleBuffer());
+	}
+	
+	/**
+	 * Allocates buffer with copy of given array.
+	 *
+	 * @param array		Values of new buffer.
+	 * @return			New buffer valid until reset() or close().
+	 */
+	public OffHeapBuffer allocate(double[] array)
+	{
+		OffHeapBuffer buffer = allocate(array.length);
+		buffer.copyFrom(array);
+		return buffer;
+	}
+	
+	/**
+	 * Releases every buffer allocated so far.
+	 * Memory is kept and reused by next allocations.
+	 */
+	public void reset()
+	{
+		generation++;
+		current = 0;
+		offset = 0;
+	}
+	
+	/**
+	 * Releases every buffer and drops references to blocks of memory,
+	 * which is freed by garbage collector later.
+	 * Arena cannot be used after it is closed.
+	 */
+	@Override
+	public void close()
+	{
+		reset();
+		blocks.clear();
+		closed = true;
+	}
+	
+	/**
+	 * @return	Number of bytes of memory reserved by this arena.
+	 */
+	public long getReservedBytes()
+	{
+		long sum = 0;
+		for(int i=0; i<blocks.size(); i++)
+		{
+			sum += blocks.get(i).capacity();
+		}
+		return sum;
+	}
+	
+	/**
+	 * @param generation	Generation in which buffer was allocated.
+	 * @return				True if buffers from this generation can still be used.
+	 */
+	boolean isValid(long generation)
+	{
+		return !closed && generation == this.generation;
+	}
+}
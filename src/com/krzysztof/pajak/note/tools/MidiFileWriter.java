@@ -0,0 +1,229 @@
+/**
+ * MidiFileWriter.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.tools;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * MidiFileWriter writes note events to a Standard MIDI File
+ * (format 0, single track) as they come, without keeping them in memory.
+ *
+ * Events have to be written in chronological order. Time is given
+ * in seconds and converted to ticks using constant tempo of 120 BPM.
+ * Length of the track is unknown until the end, so it is written
+ * when the file is closed.
+ *
+ * @author Krzysztof Pajk
+ */
+public class MidiFileWriter implements Closeable
+{
+	//Default number of ticks per quarter note
+	final static int defaultDivision = 480;
+	
+	//Tempo, microseconds per quarter note (120 BPM)
+	final static int tempo = 500000;
+	
+	//Offset of track length in file
+	final static int trackLengthOffset = 18;
+	
+	private final File file;
+	private final OutputStream out;
+	private final int division;
+	
+	//Number of bytes of track data written so far
+	private long trackLength = 0;
+	
+	//Time of the last event in ticks
+	private long lastTick = 0;
+	
+	private boolean closed = false;
+	
+	/**
+	 * Creates file and writes its header.
+	 *
+	 * @param file	Output file.
+	 * @throws IOException
+	 */
+	public MidiFileWriter(File file) throws IOException
+	{
+		this(file, defaultDivision);
+	}
+	
+	/**
+	 * Creates file and writes its header.
+	 *
+	 * @param file		Output file.
+	 * @param division	Number of ticks per quarter note.
+	 * @throws IOException
+	 */
+	public MidiFileWriter(File file, int division) throws IOException
+	{
+		if(division < 1 || division > 0x7FFF)
+		{
+			throw new IllegalArgumentException("Invalid number of ticks per quarter note");
+		}
+		
+		this.file = file;
+		this.division = division;
+		this.out = new BufferedOutputStream(new FileOutputStream(file));
+		
+		//Header chunk: format 0, one track
+		out.write(new byte[] {'M', 'T', 'h', 'd'});
+		writeInt(6);
+		writeShort(0);
+		writeShort(1);
+		writeShort(division);
+		
+		//Track chunk, length is written on close
+		out.write(new byte[] {'M', 'T', 'r', 'k'});
+		writeInt(0);
+		
+		//Tempo meta event
+		writeEvent(0, 0xFF, 0x51, 0x03);
+		writeTrackByte((tempo >> 16) & 0xFF);
+		writeTrackByte((tempo >> 8) & 0xFF);
+		writeTrackByte(tempo & 0xFF);
+	}
+	
+	/**
+	 * Writes note on event.
+	 *
+	 * @param seconds	Time of event.
+	 * @param key		MIDI key number in range [0,127], 60 is C4.
+	 * @param velocity	Velocity in range [1,127].
+	 * @throws IOException
+	 */
+	public void noteOn(double seconds, int key, int velocity) throws IOException
+	{
+		checkKey(key);
+		writeEvent(toTicks(seconds), 0x90, key, Math.max(1, Math.min(127, velocity)));
+	}
+	
+	/**
+	 * Writes note off event.
+	 *
+	 * @param seconds	Time of event.
+	 * @param key		MIDI key number in range [0,127], 60 is C4.
+	 * @throws IOException
+	 */
+	public void noteOff(double seconds, int key) throws IOException
+	{
+		checkKey(key);
+		writeEvent(toTicks(seconds), 0x80, key, 0);
+	}
+	
+	/**
+	 * Key out of range would be written as another key.
+	 */
+	private static void checkKey(int key)
+	{
+		if(key < 0 || key > 127)
+		{
+			throw new IllegalArgumentException("MIDI key out of range");
+		}
+	}
+	
+	/**
+	 * Writes end of track and length of the track, then closes file.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+		{
+			return;
+		}
+		closed = true;
+		
+		writeEvent(lastTick, 0xFF, 0x2F, 0x00);
+		out.close();
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.seek(trackLengthOffset);
+			raf.writeInt((int) trackLength);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Converts seconds to ticks, never going back in time.
+	 * @param seconds	Time in seconds.
+	 * @return			Time in ticks.
+	 */
+	private long toTicks(double seconds)
+	{
+		long tick = Math.round(seconds * 1000000.0 / tempo * division);
+		return Math.max(lastTick, tick);
+	}
+	
+	/**
+	 * Writes delta time and three bytes of an event.
+	 */
+	private void writeEvent(long tick, int status, int data1, int data2) throws IOException
+	{
+		if(closed && status != 0xFF)
+		{
+			throw new IOException("MIDI file is closed");
+		}
+		
+		//Delta time as variable length quantity
+		long delta = tick - lastTick;
+		lastTick = tick;
+		long buffer = delta & 0x7F;
+		while((delta >>= 7) > 0)
+		{
+			buffer <<= 8;
+			buffer |= ((delta & 0x7F) | 0x80);
+		}
+		while(true)
+		{
+			writeTrackByte((int)(buffer & 0xFF));
+			if((buffer & 0x80) != 0)
+			{
+				buffer >>>= 8;
+			}
+			else
+			{
+				break;
+			}
+		}
+		
+		writeTrackByte(status);
+		writeTrackByte(data1);
+		writeTrackByte(data2);
+	}
+	
+	private void writeTrackByte(int b) throws IOException
+	{
+		out.write(b);
+		trackLength++;
+	}
+	
+	private void writeInt(int v) throws IOException
+	{
+		out.write((v >>> 24) & 0xFF);
+		out.write((v >>> 16) & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+		out.write(v & 0xFF);
+	}
+	
+	private void writeShort(int v) throws IOException
+	{
+		out.write((v >>> 8) & 0xFF);
+		out.write(v & 0xFF);
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * OffHeapBuffer.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.tools;
+import java.nio.DoubleBuffer;
+
+/**
+ * OffHeapBuffer is an array of doubles stored outside of the Java heap,
+ * in memory allocated by BufferArena.
+ *
+ * Large sample and spectrum arrays kept in such buffers are not moved
+ * or scanned by garbage collector. Buffer is valid until its arena
+ * is reset or closed, any access after that throws IllegalStateException.
+ *
+ * @author Krzysztof Pajk
+ */
+public class OffHeapBuffer
+{
+	//Arena which allocated this buffer
+	private final BufferArena arena;
+	
+	//Generation of arena in which buffer was allocated
+	private final long generation;
+	
+	//Direct buffer with values
+	private final DoubleBuffer data;
+	
+	/**
+	 * Buffers are created only by BufferArena.
+	 *
+	 * @param arena			Arena which allocates the buffer.
+	 * @param generation	Current generation of arena.
+	 * @param data			Direct buffer with values.
+	 */
+	OffHeapBuffer(BufferArena arena, long generation, DoubleBuffer data)
+	{
+		this.arena = arena;
+		this.generation = generation;
+		this.data = data;
+	}
+	
+	/**
+	 * Returns underlying direct buffer for bulk and absolute access.
+	 * Returned buffer must not be used after arena is reset or closed.
+	 *
+	 * @return	Direct buffer with values.
+	 */
+	public DoubleBuffer buffer()
+	{
+		if(!isValid())
+		{
+			throw new IllegalStateException("Buffer has been released by its arena");
+		}
+		return data;
+	}
+	
+	/**
+	 * @param index		Index of value.
+	 * @return			Value at given index.
+	 */
+	public double get(int index)
+	{
+		return buffer().get(index);
+	}
+	
+	/**
+	 * @param index		Index of value.
+	 * @param value		New value.
+	 */
+	public void set(int index, double value)
+	{
+		buffer().put(index, value);
+	}
+	
+	/**
+	 * Copies values from array to the beginning of this buffer.
+	 * @param array		Source array.
+	 */
+	public void copyFrom(double[] array)
+	{
+		DoubleBuffer b = buffer().duplicate();
+		b.clear();
+		b.put(array, 0, Math.min(array.length, b.capacity()));
+	}
+	
+	/**
+	 * Copies values from the beginning of this buffer to array.
+	 * @param array		Destination array.
+	 */
+	public void copyTo(double[] array)
+	{
+		DoubleBuffer b = buffer().duplicate();
+		b.clear();
+		b.get(array, 0, Math.min(array.length, b.capacity()));
+	}
+	
+	/**
+	 * @return	Number of values in buffer.
+	 */
+	public int length()
+	{
+		return data.capacity();
+	}
+	
+	/**
+	 * @return	True if buffer can still be used.
+	 */
+	public boolean isValid()
+	{
+		return arena.isValid(generation);
+	}
+}
@@ -0,0 +1,434 @@
+/**
+ * PcmDecoder.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.tools;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * PcmDecoder converts stream of bytes (file, pipe, socket, decompressor)
+ * to samples, without reading the whole stream first.
+ *
+ * Bytes are read from channel into one direct buffer of fixed size
+ * and converted to samples only when they are requested, straight
+ * into array of caller (for example hop of StreamingNoteDetect).
+ * So memory used doesn't depend on length of stream, and samples
+ * are available as soon as enough bytes arrive.
+ *
+ * Stream is either WAV (RIFF header is parsed, chunks other than "fmt "
+ * and "data" are skipped) or raw PCM with format given by caller.
+ * Supported encodings: unsigned 8 bit, signed 16, 24 and 32 bit integers
+ * and 32 or 64 bit floats, little endian. Channels are mixed down to mono,
+ * or read interleaved for MultichannelNoteDetect.
+ * WAV written to a pipe often doesn't know length of data, so data length
+ * 0 or 0xFFFFFFFF means that samples continue until end of stream.
+ *
+ * @author Krzysztof Pajk
+ */
+public class PcmDecoder implements Closeable
+{
+	//Default size of buffer in bytes
+	final static int defaultChunkSize = 16384;
+	
+	//Formats of WAV
+	final static int formatPcm = 1;
+	final static int formatFloat = 3;
+	final static int formatExtensible = 0xFFFE;
+	
+	private final ReadableByteChannel channel;
+	
+	//Buffer in read mode, bytes between position and limit aren't decoded yet
+	private final ByteBuffer buffer;
+	private boolean eof = false;
+	
+	private int sampleRate;
+	private int channels;
+	private int bitsPerSample;
+	private boolean floating;
+	
+	//Bytes of one frame (one sample of every channel)
+	private int frameBytes;
+	
+	//Bytes of data left, -1 if data continue until end of stream
+	private long remaining = -1;
+	
+	/**
+	 * Creates decoder of WAV stream and parses its header.
+	 *
+	 * @param channel	Channel with WAV stream.
+	 * @throws IOException
+	 */
+	public PcmDecoder(ReadableByteChannel channel) throws IOException
+	{
+		this(channel, defaultChunkSize);
+	}
+	
+	/**
+	 * Creates decoder of WAV stream and parses its header.
+	 *
+	 * @param channel		Channel with WAV stream.
+	 * @param chunkSize		Size of buffer in bytes.
+	 * @throws IOException
+	 */
+	public PcmDecoder(ReadableByteChannel channel, int chunkSize) throws IOException
+	{
+		this.channel = channel;
+		this.buffer = allocate(chunkSize);
+		readHeader();
+	}
+	
+	/**
+	 * Creates decoder of WAV stream and parses its header.
+	 *
+	 * @param input		Stream with WAV data.
+	 * @throws IOException
+	 */
+	public PcmDecoder(InputStream input) throws IOException
+	{
+		this(Channels.newChannel(input));
+	}
+	
+	/**
+	 * Creates decoder of raw PCM stream without header.
+	 *
+	 * @param channel		Channel with samples.
+	 * @param chunkSize		Size of buffer in bytes.
+	 * @param sampleRate	Sampling rate.
+	 * @param channels		Number of interleaved channels.
+	 * @param bitsPerSample	8, 16, 24 or 32 for integers, 32 or 64 for floats.
+	 * @param floating		If true, samples are floats.
+	 */
+	public PcmDecoder(ReadableByteChannel channel, int chunkSize, int sampleRate, int channels, int bitsPerSample, boolean floating)
+	{
+		this.channel = channel;
+		this.buffer = allocate(chunkSize);
+		setFormat(sampleRate, channels, bitsPerSample, floating);
+	}
+	
+	/**
+	 * Allocates direct buffer, empty in read mode.
+	 */
+	private static ByteBuffer allocate(int chunkSize)
+	{
+		if(chunkSize < 64)
+		{
+			throw new IllegalArgumentException("Chunk has to contain at least 64 bytes");
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.limit(0);
+		return buffer;
+	}
+	
+	/**
+	 * Validates and sets format of samples.
+	 */
+	private void setFormat(int sampleRate, int channels, int bitsPerSample, boolean floating)
+	{
+		if(sampleRate < 1 || channels < 1)
+		{
+			throw new IllegalArgumentException("Invalid sampling rate or number of channels");
+		}
+		if(floating ? (bitsPerSample != 32 && bitsPerSample != 64)
+				: (bitsPerSample != 8 && bitsPerSample != 16 && bitsPerSample != 24 && bitsPerSample != 32))
+		{
+			throw new IllegalArgumentException("Unsupported sample size " + bitsPerSample);
+		}
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.bitsPerSample = bitsPerSample;
+		this.floating = floating;
+		this.frameBytes = channels * bitsPerSample / 8;
+		if(frameBytes > buffer.capacity())
+		{
+			throw new IllegalArgumentException("Chunk is smaller than one frame");
+		}
+	}
+	
+	/**
+	 * Parses RIFF header, stops at the beginning of samples.
+	 */
+	private void readHeader() throws IOException
+	{
+		require(12);
+		final int riff = buffer.getInt();
+		buffer.getInt();
+		final int wave = buffer.getInt();
+		if(riff != 0x46464952 || wave != 0x45564157)
+		{
+			throw new IOException("Stream is not a WAV file");
+		}
+		
+		boolean format = false;
+		while(true)
+		{
+			require(8);
+			final int id = buffer.getInt();
+			final long size = buffer.getInt() & 0xFFFFFFFFL;
+			
+			//"fmt "
+			if(id == 0x20746D66)
+			{
+				if(size < 16 || size > buffer.capacity())
+				{
+					throw new IOException("Invalid format chunk");
+				}
+				require((int) size);
+				final int start = buffer.position();
+				int tag = buffer.getShort() & 0xFFFF;
+				final int channels = buffer.getShort() & 0xFFFF;
+				final int sampleRate = buffer.getInt();
+				buffer.getInt();
+				buffer.getShort();
+				final int bits = buffer.getShort() & 0xFFFF;
+				if(tag == formatExtensible && size >= 26)
+				{
+					//Format is the first two bytes of subformat GUID
+					tag = buffer.getShort(start + 24) & 0xFFFF;
+				}
+				if(tag != formatPcm && tag != formatFloat)
+				{
+					throw new IOException("Unsupported WAV format " + tag);
+				}
+				buffer.position(start + (int) size);
+				skip(size & 1);
+				try
+				{
+					setFormat(sampleRate, channels, bits, tag == formatFloat);
+				}
+				catch(IllegalArgumentException e)
+				{
+					throw new IOException(e.getMessage());
+				}
+				format = true;
+			}
+			//"data"
+			else if(id == 0x61746164)
+			{
+				if(!format)
+				{
+					throw new IOException("Data chunk before format chunk");
+				}
+				remaining = (size == 0 || size == 0xFFFFFFFFL) ? -1 : size;
+				return;
+			}
+			else
+			{
+				skip(size + (size & 1));
+			}
+		}
+	}
+	
+	/**
+	 * Reads from channel until buffer contains at least given number of bytes.
+	 */
+	private void require(int bytes) throws IOException
+	{
+		while(buffer.remaining() < bytes)
+		{
+			if(!fill())
+			{
+				throw new IOException("Unexpected end of stream");
+			}
+		}
+	}
+	
+	/**
+	 * Skips bytes of stream.
+	 */
+	private void skip(long bytes) throws IOException
+	{
+		while(bytes > 0)
+		{
+			if(!buffer.hasRemaining() && !fill())
+			{
+				throw new IOException("Unexpected end of stream");
+			}
+			final int n = (int) Math.min(bytes, buffer.remaining());
+			buffer.position(buffer.position() + n);
+			bytes -= n;
+		}
+	}
+	
+	/**
+	 * Reads next bytes from channel after bytes not decoded yet.
+	 * @return	False at end of stream.
+	 */
+	private boolean fill() throws IOException
+	{
+		if(eof)
+		{
+			return false;
+		}
+		buffer.compact();
+		int n;
+		try
+		{
+			n = channel.read(buffer);
+		}
+		finally
+		{
+			buffer.flip();
+		}
+		if(n < 0)
+		{
+			eof = true;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Decodes next samples, mixed down to mono. Method blocks until
+	 * all requested samples are decoded or stream ends.
+	 *
+	 * @param samples	Array for samples.
+	 * @param offset	Index of the first decoded sample in array.
+	 * @param length	Number of requested samples.
+	 * @return			Number of decoded samples, -1 at end of stream.
+	 * @throws IOException
+	 */
+	public int read(double[] samples, int offset, int length) throws IOException
+	{
+		return read(samples, offset, length, true);
+	}
+	
+	/**
+	 * Decodes next frames without mixing channels, interleaved
+	 * like in stream (sample of channel c of frame i is at
+	 * offset + i*channels + c). Method blocks until all requested
+	 * frames are decoded or stream ends.
+	 *
+	 * @param samples	Array for samples, at least offset + frames*channels long.
+	 * @param offset	Index of the first decoded sample in array.
+	 * @param frames	Number of requested frames.
+	 * @return			Number of decoded frames, -1 at end of stream.
+	 * @throws IOException
+	 */
+	public int readInterleaved(double[] samples, int offset, int frames) throws IOException
+	{
+		return read(samples, offset, frames, false);
+	}
+	
+	/**
+	 * Decodes next frames, mixed or interleaved.
+	 */
+	private int read(double[] samples, int offset, int length, boolean mix) throws IOException
+	{
+		final int stride = mix ? 1 : channels;
+		int n = 0;
+		while(n < length && remaining != 0)
+		{
+			int frames = buffer.remaining() / frameBytes;
+			if(frames == 0)
+			{
+				if(!fill())
+				{
+					break;
+				}
+				continue;
+			}
+			frames = Math.min(frames, length - n);
+			if(remaining > 0)
+			{
+				frames = (int) Math.min(frames, remaining / frameBytes);
+				if(frames == 0)
+				{
+					//Incomplete frame at the end of data
+					remaining = 0;
+					break;
+				}
+				remaining -= (long) frames * frameBytes;
+			}
+			decode(samples, offset + n * stride, frames, mix);
+			n += frames;
+		}
+		return (n == 0 && length > 0) ? -1 : n;
+	}
+	
+	/**
+	 * Decodes given number of frames from buffer.
+	 */
+	private void decode(double[] samples, int offset, int frames, boolean mix)
+	{
+		if(!mix)
+		{
+			for(int i=0; i<frames*channels; i++)
+			{
+				samples[offset + i] = sample();
+			}
+			return;
+		}
+		
+		final double scale = 1.0 / channels;
+		for(int i=0; i<frames; i++)
+		{
+			double sum = 0.0;
+			for(int c=0; c<channels; c++)
+			{
+				sum += sample();
+			}
+			samples[offset + i] = sum * scale;
+		}
+	}
+	
+	/**
+	 * Decodes one sample of one channel, in range [-1,1].
+	 */
+	private double sample()
+	{
+		if(floating)
+		{
+			return (bitsPerSample == 32) ? buffer.getFloat() : buffer.getDouble();
+		}
+		switch(bitsPerSample)
+		{
+			case 8: return ((buffer.get() & 0xFF) - 128) / 128.0;
+			case 16: return buffer.getShort() / 32768.0;
+			case 24:
+				int low = buffer.getShort() & 0xFFFF;
+				return ((buffer.get() << 16) | low) / 8388608.0;
+			default: return buffer.getInt() / 2147483648.0;
+		}
+	}
+	
+	/**
+	 * @return	Sampling rate.
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+	
+	/**
+	 * @return	Number of channels mixed down to mono.
+	 */
+	public int getChannels()
+	{
+		return channels;
+	}
+	
+	/**
+	 * @return	Bits of one sample of one channel.
+	 */
+	public int getBitsPerSample()
+	{
+		return bitsPerSample;
+	}
+	
+	/**
+	 * Closes channel.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * SignalGenerator.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.tools;
+import java.util.Random;
+
+/**
+ * SignalGenerator creates test signals with known notes:
+ * sines, harmonic tones, chords, noise and silence.
+ *
+ * Generator is deterministic, signals depend only on seed
+ * and order of calls, so the same workload can be repeated
+ * to compare results of different algorithms or versions.
+ *
+ * @author Krzysztof Pajk
+ */
+public class SignalGenerator
+{
+	//Default amplitude of generated signals
+	final static double defaultAmplitude = 0.8;
+	
+	private final int sampleRate;
+	private final Random random;
+	
+	/**
+	 * @param seed			Seed of random phases and noise.
+	 * @param sampleRate	Sampling rate.
+	 */
+	public SignalGenerator(long seed, int sampleRate)
+	{
+		this.sampleRate = sampleRate;
+		this.random = new Random(seed);
+	}
+	
+	/**
+	 * Generates sine wave with random phase.
+	 *
+	 * @param frequency		Frequency in Hz.
+	 * @param length		Number of samples.
+	 * @param amplitude		Peak amplitude.
+	 * @return				Samples in time domain.
+	 */
+	public double[] sine(double frequency, int length, double amplitude)
+	{
+		double[] output = new double[length];
+		addTone(output, frequency, 1, amplitude);
+		return output;
+	}
+	
+	/**
+	 * Generates tone of note with harmonics, amplitude
+	 * of h-th harmonic is 1/h^2 of the fundamental.
+	 *
+	 * @param pitch			Pitch of note, semitones counted from C0.
+	 * @param length		Number of samples.
+	 * @param harmonics		Number of harmonics, 1 is pure sine.
+	 * @return				Samples in time domain.
+	 */
+	public double[] tone(int pitch, int length, int harmonics)
+	{
+		double[] output = new double[length];
+		addTone(output, NoteLookup.getFrequency(pitch), harmonics, defaultAmplitude);
+		return output;
+	}
+	
+	/**
+	 * Generates chord, sum of tones of equal loudness.
+	 *
+	 * @param pitches		Pitches of notes, semitones counted from C0.
+	 * @param length		Number of samples.
+	 * @param harmonics		Number of harmonics of every tone.
+	 * @return				Samples in time domain.
+	 */
+	public double[] chord(int[] pitches, int length, int harmonics)
+	{
+		double[] output = new double[length];
+		for(int i=0; i<pitches.length; i++)
+		{
+			addTone(output, NoteLookup.getFrequency(pitches[i]), harmonics, defaultAmplitude / pitches.length);
+		}
+		return output;
+	}
+	
+	/**
+	 * Generates white noise, uniformly distributed.
+	 *
+	 * @param length		Number of samples.
+	 * @param amplitude		Peak amplitude.
+	 * @return				Samples in time domain.
+	 */
+	public double[] noise(int length, double amplitude)
+	{
+		double[] output = new double[length];
+		addNoise(output, amplitude);
+		return output;
+	}
+	
+	/**
+	 * @param length	Number of samples.
+	 * @return			Samples of silence.
+	 */
+	public double[] silence(int length)
+	{
+		return new double[length];
+	}
+	
+	/**
+	 * Adds white noise to a signal.
+	 *
+	 * @param signal		Samples in time domain, modified.
+	 * @param amplitude		Peak amplitude of noise.
+	 */
+	public void addNoise(double[] signal, double amplitude)
+	{
+		for(int i=0; i<signal.length; i++)
+		{
+			signal[i] += amplitude * (2.0 * random.nextDouble() - 1.0);
+		}
+	}
+	
+	/**
+	 * Adds tone with harmonics and random phase to a signal.
+	 * Harmonics above Nyquist frequency are skipped.
+	 */
+	private void addTone(double[] signal, double frequency, int harmonics, double amplitude)
+	{
+		for(int h=1; h<=harmonics; h++)
+		{
+			double phase = 2.0 * Math.PI * random.nextDouble();
+			if(frequency * h >= sampleRate / 2.0)
+			{
+				continue;
+			}
+			
+			double step = 2.0 * Math.PI * frequency * h / sampleRate;
+			double a = amplitude / (h * h);
+			for(int i=0; i<signal.length; i++)
+			{
+				signal[i] += a * Math.sin(phase + step * i);
+			}
+		}
+	}
+	
+	/**
+	 * @return	Sampling rate.
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+}
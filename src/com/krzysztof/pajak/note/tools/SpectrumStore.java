@@ -0,0 +1,406 @@
+/**
+ * SpectrumStore.java
+ * @author Krzysztof Pajk
+ */
+
+package com.krzysztof.pajak.note.tools;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * SpectrumStore is a file with spectra of many clips, so that notes
+ * can be estimated again (for example with other tolerance)
+ * without filtering and converting samples to frequency domain.
+ *
+ * File is written once by SpectrumStore.Writer and then opened
+ * for reading, which maps it to memory. Spectra are kept as floats
+ * and read directly from mapped file, so scanning the whole store
+ * is a sequential read without copying.
+ *
+ * File format (little endian):
+ * - header: magic "NSPC", version (int), number of clips (int),
+ *   offset of index (long), 12 reserved bytes,
+ * - records: flags (int), number of bins (int), bin width (double),
+ *   magnitudes (float for every bin),
+ * - index: for every clip, in order of records, length of ID (short),
+ *   ID (UTF-8, at most 1024 bytes) and offset of record (long).
+ *
+ * Index is written when writer is closed, like length of MIDI track.
+ * Buffer can't map more than 2 GB, so records are mapped in consecutive
+ * regions, every one smaller than 2 GB and containing whole records.
+ *
+ * @author Krzysztof Pajk
+ */
+public class SpectrumStore implements Closeable
+{
+	//Magic number "NSPC" and version of format
+	final static int magic = 0x4350534E;
+	final static int version = 1;
+	
+	//Sizes of header and record header in bytes
+	final static int headerSize = 32;
+	final static int recordHeaderSize = 16;
+	
+	//Offset of number of clips in file
+	final static int countOffset = 8;
+	
+	//Maximum length of clip ID in bytes
+	final static int maxIdLength = 1024;
+	
+	//Maximum size of one mapped region in bytes
+	final static long maxRegionSize = Integer.MAX_VALUE;
+	
+	/**
+	 * Record flag: bins contain squared magnitudes.
+	 */
+	public final static int POWER = 1;
+	
+	/**
+	 * Record flag: clip was too quiet, spectrum wasn't calculated.
+	 */
+	public final static int SILENT = 2;
+	
+	private final RandomAccessFile file;
+	
+	//Mapped regions of file, region of every record and its offset in region
+	private final MappedByteBuffer[] regions;
+	private final int[] recordRegions;
+	private final int[] recordOffsets;
+	
+	//IDs of records, in order of records
+	private final String[] ids;
+	private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+	
+	/**
+	 * Opens store for reading and maps its records to memory.
+	 *
+	 * @param path	File written by SpectrumStore.Writer.
+	 * @throws IOException
+	 */
+	public SpectrumStore(File path) throws IOException
+	{
+		file = new RandomAccessFile(path, "r");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			final long size = channel.size();
+			if(size < headerSize)
+			{
+				throw new IOException("File is not a spectrum store");
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize).order(ByteOrder.LITTLE_ENDIAN);
+			if(header.getInt(0) != magic)
+			{
+				throw new IOException("File is not a spectrum store");
+			}
+			if(header.getInt(4) != version)
+			{
+				throw new IOException("Unsupported version of spectrum store");
+			}
+			
+			final int count = header.getInt(countOffset);
+			final long indexOffset = header.getLong(countOffset + 4);
+			if(indexOffset < headerSize || indexOffset > size || size - indexOffset > maxRegionSize)
+			{
+				throw new IOException("Invalid index of spectrum store");
+			}
+			ids = new String[count];
+			long[] offsets = new long[count];
+			
+			//Reading index
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, size - indexOffset).order(ByteOrder.LITTLE_ENDIAN);
+			for(int i=0; i<count; i++)
+			{
+				byte[] id = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(id);
+				ids[i] = new String(id, StandardCharsets.UTF_8);
+				offsets[i] = buffer.getLong();
+				index.put(ids[i], i);
+			}
+			
+			//Dividing records into regions, record ends where the next one begins
+			recordRegions = new int[count];
+			recordOffsets = new int[count];
+			ArrayList<MappedByteBuffer> mapped = new ArrayList<MappedByteBuffer>();
+			int first = 0;
+			for(int i=0; i<count; i++)
+			{
+				long end = (i + 1 < count) ? offsets[i + 1] : indexOffset;
+				if(offsets[i] < headerSize || end < offsets[i] || end - offsets[i] > maxRegionSize)
+				{
+					throw new IOException("Invalid record of spectrum store");
+				}
+				if(end - offsets[first] > maxRegionSize)
+				{
+					mapped.add(mapRegion(channel, offsets[first], offsets[i]));
+					first = i;
+				}
+				recordRegions[i] = mapped.size();
+				recordOffsets[i] = (int) (offsets[i] - offsets[first]);
+			}
+			if(count > 0)
+			{
+				mapped.add(mapRegion(channel, offsets[first], indexOffset));
+			}
+			regions = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+		}
+		catch(IOException | RuntimeException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Maps part of file containing whole records.
+	 */
+	private static MappedByteBuffer mapRegion(FileChannel channel, long start, long end) throws IOException
+	{
+		MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		region.order(ByteOrder.LITTLE_ENDIAN);
+		return region;
+	}
+	
+	/**
+	 * @return	Number of clips in store.
+	 */
+	public int size()
+	{
+		return ids.length;
+	}
+	
+	/**
+	 * @param id	ID of clip.
+	 * @return		Index of clip, -1 if store doesn't contain it.
+	 */
+	public int indexOf(String id)
+	{
+		Integer i = index.get(id);
+		return (i == null) ? -1 : i;
+	}
+	
+	/**
+	 * @param i		Index of clip.
+	 * @return		ID of clip.
+	 */
+	public String getId(int i)
+	{
+		return ids[i];
+	}
+	
+	/**
+	 * @param i		Index of clip.
+	 * @return		Flags of clip, POWER and SILENT.
+	 */
+	public int getFlags(int i)
+	{
+		return regions[recordRegions[i]].getInt(recordOffsets[i]);
+	}
+	
+	/**
+	 * @param i		Index of clip.
+	 * @return		Difference of frequency between adjacent bins (Hz).
+	 */
+	public double getBinWidth(int i)
+	{
+		return regions[recordRegions[i]].getDouble(recordOffsets[i] + 8);
+	}
+	
+	/**
+	 * Returns spectrum of clip, read directly from mapped file.
+	 *
+	 * @param i		Index of clip.
+	 * @return		Read only buffer with magnitudes (or squared magnitudes).
+	 */
+	public FloatBuffer getSpectrum(int i)
+	{
+		final MappedByteBuffer region = regions[recordRegions[i]];
+		final int offset = recordOffsets[i];
+		final int bins = region.getInt(offset + 4);
+		ByteBuffer buffer = region.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(offset + recordHeaderSize);
+		buffer.limit(offset + recordHeaderSize + 4 * bins);
+		return buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+	}
+	
+	/**
+	 * Closes file. Buffers returned by getSpectrum() must not be used after that.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		file.close();
+	}
+	
+	/**
+	 * Writer of spectrum store. Records are written as they come,
+	 * index is written when writer is closed.
+	 */
+	public static class Writer implements Closeable
+	{
+		private final File path;
+		private final DataOutputStream out;
+		
+		//Position in file
+		private long position = 0;
+		
+		//IDs and offsets of written records
+		private final HashMap<String, Integer> written = new HashMap<String, Integer>();
+		private final ArrayList<String> ids = new ArrayList<String>();
+		private final ArrayList<Long> offsets = new ArrayList<Long>();
+		
+		private final ByteBuffer buffer = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+		private boolean closed = false;
+		
+		/**
+		 * Creates file and writes its header.
+		 * @param path	Output file.
+		 * @throws IOException
+		 */
+		public Writer(File path) throws IOException
+		{
+			this.path = path;
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+			
+			buffer.putInt(magic);
+			buffer.putInt(version);
+			buffer.putInt(0);
+			buffer.putLong(0);
+			buffer.put(new byte[headerSize - 20]);
+			flush();
+		}
+		
+		/**
+		 * Writes spectrum of clip.
+		 *
+		 * @param id			Unique ID of clip.
+		 * @param spectrum		Magnitudes (or squared magnitudes) in frequency domain, null if clip is silent.
+		 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+		 * @param flags			POWER if spectrum contains squared magnitudes, 0 otherwise.
+		 * @throws IOException
+		 */
+		public void write(String id, double[] spectrum, double binWidth, int flags) throws IOException
+		{
+			write(id, spectrum, (spectrum == null) ? 0 : spectrum.length, binWidth, flags);
+		}
+		
+		/**
+		 * Writes the first bins of spectrum of clip, for example
+		 * the lower half of spectrum of real samples.
+		 *
+		 * @param id			Unique ID of clip.
+		 * @param spectrum		Magnitudes (or squared magnitudes) in frequency domain, null if clip is silent.
+		 * @param bins			Number of written bins.
+		 * @param binWidth		Difference of frequency between adjacent bins (Hz).
+		 * @param flags			POWER if spectrum contains squared magnitudes, 0 otherwise.
+		 * @throws IOException
+		 */
+		public void write(String id, double[] spectrum, int bins, double binWidth, int flags) throws IOException
+		{
+			if(closed)
+			{
+				throw new IOException("Spectrum store is closed");
+			}
+			if(written.containsKey(id))
+			{
+				throw new IllegalArgumentException("Clip " + id + " is already written");
+			}
+			if(id.getBytes(StandardCharsets.UTF_8).length > maxIdLength)
+			{
+				throw new IllegalArgumentException("ID of clip is too long");
+			}
+			if(spectrum == null)
+			{
+				bins = 0;
+			}
+			else if(bins < 0 || bins > spectrum.length || recordHeaderSize + 4L * bins > maxRegionSize)
+			{
+				throw new IllegalArgumentException("Invalid number of bins");
+			}
+			
+			written.put(id, ids.size());
+			ids.add(id);
+			offsets.add(position);
+			
+			buffer.putInt((spectrum == null) ? (flags | SILENT) : flags);
+			buffer.putInt(bins);
+			buffer.putDouble(binWidth);
+			for(int i=0; i<bins; i++)
+			{
+				if(buffer.remaining() < 4)
+				{
+					flush();
+				}
+				buffer.putFloat((float) spectrum[i]);
+			}
+			flush();
+		}
+		
+		/**
+		 * Writes index and number of clips, then closes file.
+		 * @throws IOException
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			if(closed)
+			{
+				return;
+			}
+			closed = true;
+			
+			final long indexOffset = position;
+			for(int i=0; i<ids.size(); i++)
+			{
+				byte[] id = ids.get(i).getBytes(StandardCharsets.UTF_8);
+				if(buffer.remaining() < 10 + id.length)
+				{
+					flush();
+				}
+				buffer.putShort((short) id.length);
+				buffer.put(id);
+				buffer.putLong(offsets.get(i));
+			}
+			flush();
+			out.close();
+			
+			RandomAccessFile raf = new RandomAccessFile(path, "rw");
+			try
+			{
+				ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(ids.size());
+				header.putLong(indexOffset);
+				raf.seek(countOffset);
+				raf.write(header.array());
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		
+		/**
+		 * Writes buffered bytes to file.
+		 */
+		private void flush() throws IOException
+		{
+			out.write(buffer.array(), 0, buffer.position());
+			position += buffer.position();
+			buffer.clear();
+		}
+	}
+}